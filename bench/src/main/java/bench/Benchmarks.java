@@ -0,0 +1,47 @@
+package bench;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the JMH benchmarks with the usual JMH command line, e.g.
+ * <pre>
+ * java -jar bench/target/benchmarks.jar -rf csv -rff before.csv
+ * java -jar bench/target/benchmarks.jar Query -p n=100000
+ * </pre>
+ * The only difference to org.openjdk.jmh.Main is that the allocations per
+ * operation are measured too (the gc profiler) unless other profilers are
+ * given with -prof. Compare checks two CSV results for regressions. */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd;
+        try {
+            cmd = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (cmd.shouldHelp() || cmd.shouldList() ||
+                cmd.shouldListWithParams() || cmd.shouldListProfilers() ||
+                cmd.shouldListResultFormats()) {
+            Main.main(args); // lists and help are printed by JMH itself
+            return;
+        }
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(cmd);
+        if (cmd.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+        try {
+            new Runner(options.build()).run();
+        } catch (RunnerException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
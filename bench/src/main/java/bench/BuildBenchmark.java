@@ -0,0 +1,49 @@
+package bench;
+
+import geo.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Building each structure over the points of a Dataset */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class BuildBenchmark {
+
+    @Benchmark
+    public QueryTree2D<Point> queryTree2D(Dataset data) {
+        return new QueryTree2D<>(data.points.clone(), Point.COMPARE_X,
+                Point.COMPARE_Y);
+    }
+
+    @Benchmark
+    public IntQueryTree2D intQueryTree2D(Dataset data) {
+        return new IntQueryTree2D(data.xs, data.ys);
+    }
+
+    /** A single treap, i.e. the one at the root of QueryTree2D */
+    @Benchmark
+    public Treap<Point> treap(Dataset data) {
+        return new Treap<>(data.points, Point.COMPARE_Y, Point.COMPARE_X,
+                null);
+    }
+
+    @Benchmark
+    public KdTree<Point> kdTree(Dataset data) {
+        return new KdTree<>(data.points, Point.COMPARE_X, Point.COMPARE_Y);
+    }
+
+    @Benchmark
+    public LayeredRangeTree<Point> layeredRangeTree(Dataset data) {
+        return new LayeredRangeTree<>(data.points, Point.COMPARE_X,
+                Point.COMPARE_Y);
+    }
+
+    @Benchmark
+    public UniformGrid uniformGrid(Dataset data) {
+        return new UniformGrid(data.xs, data.ys);
+    }
+}
@@ -0,0 +1,124 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/** Compares two results of the benchmarks written with -rf csv, to be run
+ * before and after a change:
+ * <pre>
+ * java -cp bench/target/benchmarks.jar bench.Compare before.csv after.csv
+ * </pre>
+ * Exits with code 1 if any benchmark got slower than in the first file by
+ * more than the tolerance, 10 percent unless given as the third argument.
+ * A benchmark only counts as slower if the error bars of both runs do not
+ * overlap either, so that noisy benchmarks do not fail the comparison by
+ * chance. All benchmarks measure time per operation, so a higher score is
+ * slower; the rows of the gc profiler are skipped. */
+public class Compare {
+
+    /** Score and error of a benchmark */
+    private static class Score {
+        final double score, error;
+
+        Score(double score, double error) {
+            this.score = score;
+            // the error of a single iteration is unknown (NaN), taken as 0
+            this.error = Double.isNaN(error) ? 0 : error;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("usage: Compare before.csv after.csv " +
+                    "[tolerance in percent]");
+            System.exit(1);
+        }
+        double tolerance = 0.1;
+        if (args.length == 3) {
+            try {
+                tolerance = Double.parseDouble(args[2]) / 100;
+            } catch (NumberFormatException e) {
+                System.out.println("The tolerance should be a number, not " +
+                        args[2]);
+                System.exit(1);
+            }
+        }
+        Map<String, Score> before, after;
+        try {
+            before = read(args[0]);
+            after = read(args[1]);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        boolean passed = true;
+        for (Map.Entry<String, Score> entry: after.entrySet()) {
+            Score was = before.get(entry.getKey());
+            if (was == null)
+                continue;
+            Score now = entry.getValue();
+            if (now.score > was.score * (1 + tolerance) &&
+                    now.score - now.error > was.score + was.error) {
+                System.out.printf("REGRESSION %s: %.3f +- %.3f, was " +
+                        "%.3f +- %.3f (+%.0f%%)%n", entry.getKey(),
+                        now.score, now.error, was.score, was.error,
+                        100 * (now.score / was.score - 1));
+                passed = false;
+            }
+        }
+        if (!passed)
+            System.exit(1);
+        System.out.println("No regressions");
+    }
+
+    /** The scores of a CSV file by benchmark and parameters */
+    private static Map<String, Score> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file));
+        if (lines.isEmpty())
+            throw new IllegalArgumentException(file + " is empty");
+        List<String> header = split(lines.get(0));
+        int name = header.indexOf("Benchmark");
+        int score = header.indexOf("Score");
+        int error = header.indexOf("Score Error (99.9%)");
+        if (name < 0 || score < 0 || error < 0)
+            throw new IllegalArgumentException(file +
+                    " was not written by -rf csv");
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (String line: lines.subList(1, lines.size())) {
+            List<String> fields = split(line);
+            if (fields.size() != header.size() ||
+                    fields.get(name).contains(":"))
+                continue; // secondary results, e.g. of the gc profiler
+            StringBuilder key = new StringBuilder(fields.get(name));
+            for (int i = 0; i < header.size(); i++)
+                if (header.get(i).startsWith("Param: "))
+                    key.append(' ').append(header.get(i).substring(7))
+                            .append('=').append(fields.get(i));
+            scores.put(key.toString(), new Score(
+                    Double.parseDouble(fields.get(score)),
+                    Double.parseDouble(fields.get(error))));
+        }
+        return scores;
+    }
+
+    /** The fields of a CSV line, some of them quoted */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (char c: line.toCharArray()) {
+            if (c == '"')
+                quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else
+                field.append(c);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import data.Workload;
+import geo.Point;
+import org.openjdk.jmh.annotations.*;
+
+/** The points a benchmark runs on, generated by data.Workload from a fixed
+ * seed, so that every fork and every run sees the same ones */
+@State(Scope.Benchmark)
+public class Dataset {
+
+    static final int RANGE = 1 << 30; // coordinates are [0, RANGE)
+    static final long SEED = 42;
+
+    @Param({"1000", "100000"})
+    public int n;
+
+    @Param({"uniform", "clustered"})
+    public String dist;
+
+    Workload workload;
+    int[][] coordinates; // x and y coordinates
+    int[] xs, ys;
+    Point[] points;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        workload = new Workload(SEED, RANGE);
+        coordinates = workload.points(Workload.Points.byName(dist), n);
+        xs = coordinates[0];
+        ys = coordinates[1];
+        points = toPoints(xs, ys);
+    }
+
+    static Point[] toPoints(int[] xs, int[] ys) {
+        Point[] points = new Point[xs.length];
+        for (int i = 0; i < xs.length; i++)
+            points[i] = new Point(xs[i], ys[i]);
+        return points;
+    }
+}
@@ -0,0 +1,260 @@
+package bench;
+
+import data.Workload;
+import geo.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/** Searching, counting and limit-searching each structure with queries of
+ * a given selectivity. Every structure has a state of its own, so that a
+ * fork only builds the one it measures. An operation is one query; the
+ * queries are cycled through. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryBenchmark {
+
+    static final int QUERIES = 1024; // distinct queries
+    static final int LIMIT = 100; // points wanted by limit queries
+
+    private long found; // points found by the current query
+    private final Consumer<Point> counter = point -> found++;
+    private final IntConsumer idCounter = id -> found++;
+
+    /** Queries over a Dataset */
+    @State(Scope.Benchmark)
+    public static class Queries extends Dataset {
+
+        // fraction of the plane covered by a query. 0 stands for queries
+        // of single points, which are unlikely to hit any.
+        @Param({"0", "0.01", "0.1", "1"})
+        public double selectivity;
+
+        @Param({"uniform"})
+        public String querydist;
+
+        Point[] mins, maxs; // corners of the queries
+        // upper right corners of the same queries opened towards the top
+        Point[] tops;
+        private int next; // index of the next query
+
+        @Setup(Level.Trial)
+        public void generateQueries() {
+            int[][] corners = workload.queries(
+                    Workload.Queries.byName(querydist), QUERIES, selectivity,
+                    coordinates);
+            mins = new Point[QUERIES];
+            maxs = new Point[QUERIES];
+            tops = new Point[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                mins[i] = new Point(corners[0][i], corners[1][i]);
+                maxs[i] = new Point(corners[2][i], corners[3][i]);
+                tops[i] = new Point(corners[2][i], Integer.MAX_VALUE);
+            }
+        }
+
+        /** Index of the query to run next */
+        int next() {
+            next = (next + 1) & (QUERIES - 1);
+            return next;
+        }
+    }
+
+    public static class Tree extends Queries {
+        QueryTree2D<Point> index;
+
+        @Setup(Level.Trial)
+        public void build() {
+            index = new QueryTree2D<>(points.clone(), Point.COMPARE_X,
+                    Point.COMPARE_Y);
+        }
+    }
+
+    public static class IntTree extends Queries {
+        IntQueryTree2D index;
+
+        @Setup(Level.Trial)
+        public void build() {
+            index = new IntQueryTree2D(xs, ys);
+        }
+    }
+
+    public static class EytzingerTree extends Queries {
+        IntQueryTree2D index;
+
+        @Setup(Level.Trial)
+        public void build() {
+            index = new IntQueryTree2D(xs, ys);
+            index.setLayout(IntQueryTree2D.Layout.EYTZINGER);
+        }
+    }
+
+    public static class Kd extends Queries {
+        KdTree<Point> index;
+
+        @Setup(Level.Trial)
+        public void build() {
+            index = new KdTree<>(points, Point.COMPARE_X, Point.COMPARE_Y);
+        }
+    }
+
+    public static class Layered extends Queries {
+        LayeredRangeTree<Point> index;
+
+        @Setup(Level.Trial)
+        public void build() {
+            index = new LayeredRangeTree<>(points, Point.COMPARE_X,
+                    Point.COMPARE_Y);
+        }
+    }
+
+    public static class Grid extends Queries {
+        UniformGrid index;
+
+        @Setup(Level.Trial)
+        public void build() {
+            index = new UniformGrid(xs, ys);
+        }
+    }
+
+    public static class ThreeSided extends Queries {
+        ThreeSidedIndex<Point> index;
+
+        @Setup(Level.Trial)
+        public void build() {
+            index = new ThreeSidedIndex<>(points, Point.COMPARE_X,
+                    Point.COMPARE_Y, EnumSet.of(ThreeSidedIndex.Side.ABOVE));
+        }
+    }
+
+    @Benchmark
+    public long searchQueryTree2D(Tree s) {
+        int i = s.next();
+        found = 0;
+        s.index.search(s.mins[i], s.maxs[i], counter);
+        return found;
+    }
+
+    @Benchmark
+    public long searchIntQueryTree2D(IntTree s) {
+        int i = s.next();
+        found = 0;
+        s.index.search(s.mins[i].x, s.mins[i].y, s.maxs[i].x, s.maxs[i].y,
+                idCounter);
+        return found;
+    }
+
+    @Benchmark
+    public long searchIntQueryTree2DEytzinger(EytzingerTree s) {
+        int i = s.next();
+        found = 0;
+        s.index.search(s.mins[i].x, s.mins[i].y, s.maxs[i].x, s.maxs[i].y,
+                idCounter);
+        return found;
+    }
+
+    @Benchmark
+    public long searchKdTree(Kd s) {
+        int i = s.next();
+        found = 0;
+        s.index.search(s.mins[i], s.maxs[i], counter);
+        return found;
+    }
+
+    @Benchmark
+    public long searchLayeredRangeTree(Layered s) {
+        int i = s.next();
+        found = 0;
+        s.index.search(s.mins[i], s.maxs[i], counter);
+        return found;
+    }
+
+    @Benchmark
+    public long searchUniformGrid(Grid s) {
+        int i = s.next();
+        found = 0;
+        s.index.search(s.mins[i], s.maxs[i], counter);
+        return found;
+    }
+
+    @Benchmark
+    public int limitQueryTree2D(Tree s) {
+        int i = s.next();
+        return s.index.search(s.mins[i], s.maxs[i], LIMIT, point -> { });
+    }
+
+    @Benchmark
+    public int limitIntQueryTree2D(IntTree s) {
+        int i = s.next();
+        return s.index.search(s.mins[i].x, s.mins[i].y, s.maxs[i].x,
+                s.maxs[i].y, LIMIT, id -> { });
+    }
+
+    /** The LIMIT points of the rectangle with the smallest x */
+    @Benchmark
+    public int leftmostQueryTree2D(Tree s) {
+        int i = s.next();
+        return s.index.searchByX(s.mins[i], s.maxs[i], LIMIT, false).size();
+    }
+
+    @Benchmark
+    public long aboveQueryTree2D(Tree s) {
+        int i = s.next();
+        found = 0;
+        s.index.search(s.mins[i], s.tops[i], counter);
+        return found;
+    }
+
+    @Benchmark
+    public long aboveThreeSidedIndex(ThreeSided s) {
+        int i = s.next();
+        found = 0;
+        s.index.search(s.mins[i], s.tops[i], counter);
+        return found;
+    }
+
+    @Benchmark
+    public int countQueryTree2D(Tree s) {
+        int i = s.next();
+        return s.index.count(s.mins[i], s.maxs[i]);
+    }
+
+    @Benchmark
+    public int countIntQueryTree2D(IntTree s) {
+        int i = s.next();
+        return s.index.count(s.mins[i].x, s.mins[i].y, s.maxs[i].x,
+                s.maxs[i].y);
+    }
+
+    @Benchmark
+    public int countIntQueryTree2DEytzinger(EytzingerTree s) {
+        int i = s.next();
+        return s.index.count(s.mins[i].x, s.mins[i].y, s.maxs[i].x,
+                s.maxs[i].y);
+    }
+
+    @Benchmark
+    public int countKdTree(Kd s) {
+        int i = s.next();
+        return s.index.count(s.mins[i], s.maxs[i]);
+    }
+
+    @Benchmark
+    public int countLayeredRangeTree(Layered s) {
+        int i = s.next();
+        return s.index.count(s.mins[i], s.maxs[i]);
+    }
+
+    @Benchmark
+    public int countUniformGrid(Grid s) {
+        int i = s.next();
+        return s.index.count(s.mins[i], s.maxs[i]);
+    }
+}
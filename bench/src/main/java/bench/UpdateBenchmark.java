@@ -0,0 +1,81 @@
+package bench;
+
+import data.Workload;
+import geo.IntQueryTree2D;
+import geo.Point;
+import geo.QueryTree2D;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Inserting and deleting points */
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class UpdateBenchmark {
+
+    /** A QueryTree2D and more points of the same distribution. Its updates
+     * copy the nodes they change, so the tree itself never changes and
+     * every operation updates the same one. */
+    @State(Scope.Benchmark)
+    public static class Tree extends Dataset {
+        QueryTree2D<Point> tree;
+        Point[] inserted;
+        private int next; // index of the point to insert or delete next
+
+        @Setup(Level.Trial)
+        public void build() {
+            tree = new QueryTree2D<>(points.clone(), Point.COMPARE_X,
+                    Point.COMPARE_Y);
+            int[][] more = workload.points(Workload.Points.byName(dist), n);
+            inserted = toPoints(more[0], more[1]);
+        }
+
+        int next() {
+            next = next + 1 == n ? 0 : next + 1;
+            return next;
+        }
+    }
+
+    /** A fresh IntQueryTree2D for every invocation, since deletions change
+     * it */
+    @State(Scope.Benchmark)
+    public static class IntTree extends Dataset {
+        IntQueryTree2D tree;
+
+        @Setup(Level.Invocation)
+        public void build() {
+            tree = new IntQueryTree2D(xs, ys);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public QueryTree2D<Point> insertQueryTree2D(Tree s) {
+        return s.tree.insert(s.inserted[s.next()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public QueryTree2D<Point> deleteQueryTree2D(Tree s) {
+        return s.tree.delete(s.points[s.next()]);
+    }
+
+    /** Deleting a quarter of the points, one by one, from a fresh tree.
+     * The score is the time of all n / 4 deletions. A single deletion is
+     * too short for the per-invocation setup, and deleting more of the
+     * points would measure a tree that is mostly tombstones. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 20, batchSize = 1)
+    public int deleteQuarterIntQueryTree2D(IntTree s) {
+        int deleted = 0;
+        for (int i = 0; i < Math.max(1, s.n / 4); i++)
+            deleted += s.tree.delete(s.xs[i], s.ys[i]) ? 1 : 0;
+        return deleted;
+    }
+}
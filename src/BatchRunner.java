@@ -0,0 +1,149 @@
+import geo.Point;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/** Runs the queries of the -file mode on a pool of worker threads.
+ * The tree is never modified after it is built, so the workers share it
+ * without any synchronization. Queries are collected in blocks; a full block
+ * is split between the workers while the caller goes on reading the next
+ * one, and the results of every block are printed in input order. */
+public class BatchRunner implements AutoCloseable {
+
+    static final int BLOCK_SIZE = 1 << 14; // queries answered together
+
+    private final Query query;
+    private final PrintStream out;
+    private final int threads;
+    private final boolean reorder; // sort each block by x before answering
+    private final ExecutorService pool; // null if everything runs inline
+
+    private Point[] mins, maxs; // the block being filled
+    private int size; // number of queries in that block
+    private Block running; // the block being answered, if any
+
+    /**
+     * @param query   Answers a single query
+     * @param out     Where the results are printed
+     * @param threads Number of worker threads
+     * @param reorder Whether to answer the queries of a block in the order
+     *                of their left sides, so that consecutive queries of a
+     *                worker touch the same parts of the tree
+     */
+    public BatchRunner(Query query, PrintStream out, int threads,
+                       boolean reorder) {
+        this.query = query;
+        this.out = out;
+        this.threads = threads;
+        this.reorder = reorder;
+        this.pool = threads > 1 ? Executors.newFixedThreadPool(threads) :
+                null;
+        this.mins = new Point[BLOCK_SIZE];
+        this.maxs = new Point[BLOCK_SIZE];
+    }
+
+    /** Queue a query. Its result is printed once its block is answered. */
+    public void add(Point min, Point max) {
+        mins[size] = min;
+        maxs[size] = max;
+        size++;
+        if (size == BLOCK_SIZE)
+            flush();
+    }
+
+    /** Print the results of the running block and start the queued one */
+    private void flush() {
+        finishRunning();
+        if (size == 0)
+            return;
+        running = new Block(mins, maxs, size);
+        mins = new Point[BLOCK_SIZE];
+        maxs = new Point[BLOCK_SIZE];
+        size = 0;
+    }
+
+    private void finishRunning() {
+        if (running == null)
+            return;
+        running.print();
+        running = null;
+    }
+
+    /** Answer all the queued queries and shut the workers down */
+    @Override
+    public void close() {
+        flush();
+        finishRunning();
+        out.flush();
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    /** Answers a single query */
+    public interface Query {
+        String answer(Point min, Point max);
+    }
+
+    /** Queries that are answered together */
+    private class Block {
+        private final Point[] mins, maxs;
+        private final String[] results;
+        private final List<Future<?>> tasks;
+
+        /** Start answering queries [0...size) of the arrays */
+        Block(Point[] mins, Point[] maxs, int size) {
+            this.mins = mins;
+            this.maxs = maxs;
+            this.results = new String[size];
+            int[] order = order(size);
+            this.tasks = new ArrayList<>();
+            int chunk = (size + threads - 1) / threads;
+            for (int from = 0; from < size; from += chunk) {
+                int to = Math.min(from + chunk, size), start = from;
+                Runnable task = () -> {
+                    for (int i = start; i < to; i++)
+                        results[order[i]] = query.answer(
+                                this.mins[order[i]], this.maxs[order[i]]);
+                };
+                if (pool == null)
+                    task.run();
+                else
+                    tasks.add(pool.submit(task));
+            }
+        }
+
+        /** The order in which the queries are answered */
+        private int[] order(int size) {
+            int[] order = new int[size];
+            if (!reorder) {
+                for (int i = 0; i < size; i++)
+                    order[i] = i;
+                return order;
+            }
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++)
+                keys[i] = ((long) mins[i].x << 32) | i;
+            Arrays.sort(keys);
+            for (int i = 0; i < size; i++)
+                order[i] = (int) keys[i];
+            return order;
+        }
+
+        /** Wait for the results and print them in input order */
+        void print() {
+            try {
+                for (Future<?> task: tasks)
+                    task.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Query failed", e);
+            }
+            StringBuilder builder = new StringBuilder();
+            for (String result: results)
+                builder.append(result).append('\n');
+            out.print(builder);
+        }
+    }
+}
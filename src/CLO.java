@@ -1,6 +1,11 @@
+import data.Workload;
+import geo.IndexSelector;
 import org.apache.commons.cli.*;
 
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
 
 /** Parsing Command Line Options */
 public class CLO { // command line options
@@ -9,6 +14,29 @@ public class CLO { // command line options
     public final String file; // contains points/queries. Incompatible with GUI.
     public final Dimension resolution; // resolution of GUI screen
     public final int performance; // do a performance test for this many pts
+    public final boolean count; // print the number of points for each query
+    public final int limit; // print at most this many points per query
+    public final int cache; // number of query results to cache, -1 if none
+    public final int threads; // number of threads answering queries
+    public final int loadTest; // load test a tree of this many points
+    public final int[] threadCounts; // numbers of threads of the load test
+    public final int duration; // seconds of the load test per thread count
+    public final boolean virtual; // whether the load test uses virtual threads
+    public final boolean reorder; // answer queries sorted by x
+    public final String convert; // convert the -file to binary format here
+    public final String index; // load the tree from this snapshot
+    public final String saveIndex; // save the built tree to this snapshot
+    public final IndexSelector.Engine engine; // null to choose automatically
+    public final String generate; // write a generated workload to this file
+    public final int points; // number of points to generate
+    public final int queries; // number of queries to generate or measure
+    public final Workload.Points dist; // distribution of generated points
+    public final Workload.Queries queryDist; // and of generated queries
+    public final double selectivity; // fraction of the plane per query
+    public final long seed; // seed of the generated workload
+    public final int warmup; // queries run before measuring
+    public final String csv; // append the measurements here
+    public final String json; // write the measurements here
 
     private static final Dimension RESOLUTION_DEFAULT =
             new Dimension(1800, 1000);
@@ -30,6 +58,26 @@ public class CLO { // command line options
         performance.setType(Number.class);
         options.addOption(performance);
 
+        Option loadTest = new Option("loadtest", true, "Build a tree of " +
+                "this many points and query it from several threads at " +
+                "once for -duration seconds per number of -threads. Reports " +
+                "the throughput and latency percentiles. Does not work " +
+                "with -gui, -file, -performance, or -generate");
+        loadTest.setRequired(false);
+        loadTest.setType(Number.class);
+        options.addOption(loadTest);
+
+        Option duration = new Option("duration", true, "With -loadtest, " +
+                "seconds to test each number of threads for. Default is 5");
+        duration.setRequired(false);
+        duration.setType(Number.class);
+        options.addOption(duration);
+
+        Option virtual = new Option("virtual", false, "With -loadtest, " +
+                "run the queries on virtual threads. Needs Java 21");
+        virtual.setRequired(false);
+        options.addOption(virtual);
+
         Option file = new Option("f", "file", true, "File with the set of " +
                 "points on first line: x1,y2 x2,y2 ... and with two query " +
                 "points on each following line. Coordinates must be integers.");
@@ -37,6 +85,149 @@ public class CLO { // command line options
         file.setType(String.class);
         options.addOption(file);
 
+        Option count = new Option("count", false, "With -file, print " +
+                "the number of points in each query rectangle instead of " +
+                "the points themselves");
+        count.setRequired(false);
+        options.addOption(count);
+
+        Option limit = new Option("limit", true, "With -file, print at " +
+                "most this many points of each query rectangle. The search " +
+                "stops once it has found them");
+        limit.setRequired(false);
+        limit.setType(Number.class);
+        options.addOption(limit);
+
+        Option cache = new Option("cache", true, "With -file, cache the " +
+                "results of this many queries, so that repeated queries " +
+                "and queries within cached ones are answered without " +
+                "searching the tree. Uses at most a quarter of the heap");
+        cache.setRequired(false);
+        cache.setType(Number.class);
+        options.addOption(cache);
+
+        Option threads = new Option("threads", true, "With -file, answer " +
+                "the queries on this many threads. Default is 1. With " +
+                "-loadtest, comma-separated numbers of threads to test. " +
+                "Default is 1, 2, 4, ... up to the number of cores");
+        threads.setRequired(false);
+        threads.setType(String.class);
+        options.addOption(threads);
+
+        Option reorder = new Option("reorder", false, "With -file, answer " +
+                "queries in the order of their x coordinates for better " +
+                "cache locality. Results are still printed in input order");
+        reorder.setRequired(false);
+        options.addOption(reorder);
+
+        Option convert = new Option("convert", true, "Convert the file " +
+                "given with -file to the binary format, write it here and " +
+                "exit. Binary files are recognized by -file automatically");
+        convert.setRequired(false);
+        convert.setType(String.class);
+        options.addOption(convert);
+
+        Option index = new Option("index", true, "With -file, load the " +
+                "tree from this snapshot instead of building it. The points " +
+                "in the file are skipped");
+        index.setRequired(false);
+        index.setType(String.class);
+        options.addOption(index);
+
+        Option saveIndex = new Option("saveindex", true, "With -file, " +
+                "save the tree built from the points in the file to this " +
+                "snapshot, so that -index can load it later");
+        saveIndex.setRequired(false);
+        saveIndex.setType(String.class);
+        options.addOption(saveIndex);
+
+        Option engine = new Option("engine", true, "With -file, " +
+                "-performance, or -loadtest, the index to query: tree, " +
+                "int-tree, layered, kd-tree, grid, or auto to choose one " +
+                "from the points and -selectivity. Default is int-tree " +
+                "with -file and tree otherwise");
+        engine.setRequired(false);
+        engine.setType(String.class);
+        options.addOption(engine);
+
+        Option generate = new Option("generate", true, "Generate points " +
+                "and queries, write them to this file in the -file format " +
+                "and exit. Does not work with -gui, -file or -performance");
+        generate.setRequired(false);
+        generate.setType(String.class);
+        options.addOption(generate);
+
+        Option points = new Option("points", true, "With -generate, the " +
+                "number of points. Default is 1000");
+        points.setRequired(false);
+        points.setType(Number.class);
+        options.addOption(points);
+
+        Option queries = new Option("queries", true, "With -generate, the " +
+                "number of queries. Default is 100. With -performance, the " +
+                "number of measured queries, with -loadtest the number of " +
+                "distinct queries. Default is 100000");
+        queries.setRequired(false);
+        queries.setType(Number.class);
+        options.addOption(queries);
+
+        Option dist = new Option("dist", true, "With -generate, " +
+                "-performance, or -loadtest, how the points are spread: " +
+                "uniform, clustered (Gaussian clusters of Zipf-distributed " +
+                "sizes), grid (many duplicates) or equal-x (few distinct x " +
+                "coordinates). Default is uniform");
+        dist.setRequired(false);
+        dist.setType(String.class);
+        options.addOption(dist);
+
+        Option queryDist = new Option("querydist", true, "With -generate, " +
+                "-performance, or -loadtest, where the queries go: uniform " +
+                "or zipf (a few hotspots get most queries). Default is " +
+                "uniform");
+        queryDist.setRequired(false);
+        queryDist.setType(String.class);
+        options.addOption(queryDist);
+
+        Option selectivity = new Option("selectivity", true, "With " +
+                "-generate, -performance, or -loadtest, the fraction of the " +
+                "plane covered by each query, between 0 and 1. With -file " +
+                "and -engine auto, the expected one. Default is 0 (single " +
+                "points) with -performance and -loadtest and 0.0001 " +
+                "otherwise");
+        selectivity.setRequired(false);
+        selectivity.setType(Number.class);
+        options.addOption(selectivity);
+
+        Option seed = new Option("seed", true, "With -generate, " +
+                "-performance, or -loadtest, the seed of the random " +
+                "numbers. The same seed gives the same points and queries. " +
+                "Default is 1");
+        seed.setRequired(false);
+        seed.setType(Number.class);
+        options.addOption(seed);
+
+        Option warmup = new Option("warmup", true, "With -performance " +
+                "or -loadtest, " +
+                "the number of queries run before the measured ones, so " +
+                "that the JIT compiler is done with the code. Default is " +
+                "10000");
+        warmup.setRequired(false);
+        warmup.setType(Number.class);
+        options.addOption(warmup);
+
+        Option csv = new Option("csv", true, "With -performance or " +
+                "-loadtest, append the results to this CSV file, with a " +
+                "header if it is new");
+        csv.setRequired(false);
+        csv.setType(String.class);
+        options.addOption(csv);
+
+        Option json = new Option("json", true, "With -performance or " +
+                "-loadtest, write the results to this file as JSON");
+        json.setRequired(false);
+        json.setType(String.class);
+        options.addOption(json);
+
         Option resolution = new Option("r", "resolution", true,
                 "Size of the GUI window. Default is " +
                         RESOLUTION_DEFAULT.width + "x" +
@@ -62,27 +253,241 @@ public class CLO { // command line options
                 Integer.parseInt(cmd.getOptionValue("performance")) :
                 -1;
         this.file = cmd.hasOption("file") ? cmd.getOptionValue("file") : null;
+        this.count = cmd.hasOption("count");
+        this.limit = parseNumber(cmd, "limit", -1);
+        this.cache = parseNumber(cmd, "cache", -1);
+        this.loadTest = parseNumber(cmd, "loadtest", -1);
+        this.threadCounts = cmd.hasOption("threads") ?
+                parseThreads(cmd.getOptionValue("threads")) :
+                defaultThreads(this.loadTest != -1);
+        this.threads = this.threadCounts[0];
+        this.duration = parseNumber(cmd, "duration", 5);
+        this.virtual = cmd.hasOption("virtual");
+        this.reorder = cmd.hasOption("reorder");
+        this.convert = cmd.hasOption("convert") ?
+                cmd.getOptionValue("convert") : null;
+        this.index = cmd.hasOption("index") ?
+                cmd.getOptionValue("index") : null;
+        this.saveIndex = cmd.hasOption("saveindex") ?
+                cmd.getOptionValue("saveindex") : null;
+        this.engine = parseEngine(cmd.getOptionValue("engine",
+                this.file != null ? "int-tree" : "tree"));
+        this.generate = cmd.hasOption("generate") ?
+                cmd.getOptionValue("generate") : null;
+        this.dist = parseDistribution(cmd.getOptionValue("dist", "uniform"),
+                Workload.Points::byName);
+        this.queryDist = parseDistribution(cmd.getOptionValue("querydist",
+                "uniform"), Workload.Queries::byName);
+        boolean performanceTest = cmd.hasOption("performance") ||
+                cmd.hasOption("loadtest");
+        int nPoints = 0, nQueries = 0, nWarmup = 0;
+        double fraction = 0;
+        long seedValue = 0;
+        try {
+            nPoints = Integer.parseInt(cmd.getOptionValue("points", "1000"));
+            nQueries = Integer.parseInt(cmd.getOptionValue("queries",
+                    performanceTest ? "100000" : "100"));
+            fraction = Double.parseDouble(cmd.getOptionValue("selectivity",
+                    performanceTest ? "0" : "0.0001"));
+            seedValue = Long.parseLong(cmd.getOptionValue("seed", "1"));
+            nWarmup = Integer.parseInt(cmd.getOptionValue("warmup",
+                    "10000"));
+        } catch (NumberFormatException e) {
+            System.out.println("-points, -queries, -selectivity, -seed, and " +
+                    "-warmup should be numbers");
+            System.exit(0);
+        }
+        this.points = nPoints;
+        this.queries = nQueries;
+        this.selectivity = fraction;
+        this.seed = seedValue;
+        this.warmup = nWarmup;
+        this.csv = cmd.hasOption("csv") ? cmd.getOptionValue("csv") : null;
+        this.json = cmd.hasOption("json") ? cmd.getOptionValue("json") : null;
         this.resolution = cmd.hasOption("resolution") ?
                 parseResolution(cmd.getOptionValue("resolution")) :
                 RESOLUTION_DEFAULT;
 
-        if (cmd.hasOption("performance") && (this.performance < 100)) {
+        if ((cmd.hasOption("performance") && this.performance < 100) ||
+                (cmd.hasOption("loadtest") && this.loadTest < 100)) {
             System.out.println("Performance tests should be conducted for at " +
                     "least 100 point");
             System.exit(0);
         }
 
-        if ((this.gui && this.file != null) ||
-                (this.performance != -1 && this.file != null) ||
-                (this.gui && this.performance != -1)) {
-            System.out.println("-gui, -file, and -performance are pariwise " +
-                    "incompatible. Use one.");
+        int modes = (this.gui ? 1 : 0) + (this.file != null ? 1 : 0) +
+                (this.performance != -1 ? 1 : 0) +
+                (this.generate != null ? 1 : 0) + (this.loadTest != -1 ? 1 : 0);
+        if (modes > 1) {
+            System.out.println("-gui, -file, -performance, -generate, and " +
+                    "-loadtest are pariwise incompatible. Use one.");
+            System.exit(0);
+
+        }
+        if ((this.count || this.limit != -1 || this.cache != -1 ||
+                this.reorder || this.convert != null || this.index != null ||
+                this.saveIndex != null) && this.file == null) {
+            System.out.println("-count, -limit, -cache, -reorder, -convert, " +
+                    "-index, and -saveindex only work with -file");
+            System.exit(0);
+        }
+        if (this.cache != -1 && (this.count || this.limit != -1)) {
+            System.out.println("-cache does not work with -count or -limit");
+            System.exit(0);
+        }
+        if (cmd.hasOption("cache") && this.cache < 1) {
+            System.out.println("-cache should be at least 1");
+            System.exit(0);
+        }
+        if (this.count && this.limit != -1) {
+            System.out.println("-count and -limit are incompatible");
+            System.exit(0);
+        }
+        if (cmd.hasOption("limit") && this.limit < 1) {
+            System.out.println("-limit should be at least 1");
+            System.exit(0);
+        }
+        if (cmd.hasOption("threads") && this.file == null &&
+                this.loadTest == -1) {
+            System.out.println("-threads only works with -file or -loadtest");
+            System.exit(0);
+        }
+        if (this.file != null && this.threadCounts.length > 1) {
+            System.out.println("-threads should be a single number with " +
+                    "-file");
+            System.exit(0);
+        }
+        if ((cmd.hasOption("duration") || this.virtual) &&
+                this.loadTest == -1) {
+            System.out.println("-duration and -virtual only work with " +
+                    "-loadtest");
+            System.exit(0);
+        }
+        if (this.duration < 1) {
+            System.out.println("-duration should be at least 1");
+            System.exit(0);
+        }
+        if (cmd.hasOption("points") && this.generate == null) {
+            System.out.println("-points only works with -generate");
+            System.exit(0);
+        }
+        if ((cmd.hasOption("queries") || cmd.hasOption("dist") ||
+                cmd.hasOption("querydist") || cmd.hasOption("seed") ||
+                (cmd.hasOption("selectivity") && (this.file == null ||
+                        this.engine != null))) && this.generate == null &&
+                !performanceTest) {
+            System.out.println("-queries, -dist, -querydist, -selectivity, " +
+                    "and -seed only work with -generate, -performance, or " +
+                    "-loadtest, -selectivity also with -file and -engine " +
+                    "auto");
+            System.exit(0);
+        }
+        if ((cmd.hasOption("warmup") || this.csv != null ||
+                this.json != null) && !performanceTest) {
+            System.out.println("-warmup, -csv, and -json only work with " +
+                    "-performance or -loadtest");
+            System.exit(0);
+        }
+        if (this.points < 1 || this.queries < 0 || this.warmup < 0 ||
+                this.selectivity < 0 || this.selectivity > 1 ||
+                (performanceTest && this.queries < 1)) {
+            System.out.println("-points and -queries should be at least 1 " +
+                    "(-queries can be 0 with -generate), -warmup at least 0, " +
+                    "and -selectivity between 0 and 1");
+            System.exit(0);
+        }
+        if (cmd.hasOption("engine") && this.file == null &&
+                !performanceTest) {
+            System.out.println("-engine only works with -file, " +
+                    "-performance, or -loadtest");
+            System.exit(0);
+        }
+        if ((this.index != null || this.saveIndex != null) &&
+                this.engine != IndexSelector.Engine.INT_TREE) {
+            System.out.println("-index and -saveindex only work with " +
+                    "-engine int-tree");
+            System.exit(0);
+        }
+        if (this.index != null && this.saveIndex != null) {
+            System.out.println("-index and -saveindex are incompatible");
+            System.exit(0);
+        }
+        if (modes == 0) {
+            System.out.println("Use one of -gui, -file, -performance, " +
+                    "-generate, or -loadtest");
+            System.exit(0);
+        }
+    }
+
+    /** Comma-separated numbers of threads, exits if they are malformed */
+    private static int[] parseThreads(String list) {
+        String[] parts = list.split(",");
+        int[] result = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++)
+                result[i] = Integer.parseInt(parts[i].trim());
+        } catch (NumberFormatException e) {
+            System.out.println("-threads should be comma-separated numbers");
+            System.exit(0);
+        }
+        for (int count: result) {
+            if (count < 1) {
+                System.out.println("-threads should be at least 1");
+                System.exit(0);
+            }
+        }
+        return result;
+    }
+
+    /** The number given to an option or absent if the option is not given,
+     * exits if it is not a number */
+    private static int parseNumber(CommandLine cmd, String option,
+                                   int absent) {
+        if (!cmd.hasOption(option))
+            return absent;
+        try {
+            return Integer.parseInt(cmd.getOptionValue(option).trim());
+        } catch (NumberFormatException e) {
+            System.out.println("-" + option + " should be a number");
             System.exit(0);
+            return absent;
+        }
+    }
+
+    /** 1 for answering files; 1, 2, 4, ... up to the number of cores for
+     * load tests */
+    private static int[] defaultThreads(boolean loadTest) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<>();
+        for (int count = 1; loadTest && count < cores; count *= 2)
+            counts.add(count);
+        counts.add(loadTest ? cores : 1);
+        return counts.stream().mapToInt(Integer::intValue).toArray();
+    }
 
+    /** The distribution with a given name, exits if there is no such one */
+    private static <T> T parseDistribution(String name,
+                                           Function<String, T> byName) {
+        try {
+            return byName.apply(name);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown distribution: " + name);
+            System.exit(0);
+            return null;
         }
-        if (!this.gui && this.file == null && this.performance == -1) {
-            System.out.println("Use one of -gui, -file, or -performance");
+    }
+
+    /** The engine with a given name or null for auto, exits if there is no
+     * such one */
+    private static IndexSelector.Engine parseEngine(String name) {
+        if (name.equalsIgnoreCase("auto"))
+            return null;
+        try {
+            return IndexSelector.Engine.byName(name);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown engine: " + name);
             System.exit(0);
+            return null;
         }
     }
 
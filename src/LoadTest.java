@@ -0,0 +1,189 @@
+import bench.Histogram;
+import geo.Point;
+import geo.RangeIndex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/** The -loadtest mode. Builds one index over generated points and queries
+ * it from several threads at once, for a fixed time per number of
+ * threads. The index is never modified, so the threads share it without any
+ * synchronization, and each of them cycles through the generated queries
+ * from its own offset and records its latencies in its own histogram; if
+ * the throughput does not grow with the threads, the contention is in the
+ * index or the JVM, not in the test. */
+public class LoadTest {
+
+    private final CLO clo;
+    private final RangeIndex<Point> tree;
+    private final Point[] mins, maxs; // corners of the queries
+
+    private LoadTest(CLO clo, RangeIndex<Point> tree, Point[] mins,
+                     Point[] maxs) {
+        this.clo = clo;
+        this.tree = tree;
+        this.mins = mins;
+        this.maxs = maxs;
+    }
+
+    /** Run the test described by the command line options and report the
+     * results */
+    public static void run(CLO clo) {
+        if (clo.virtual)
+            virtualThreads().shutdown(); // fail before the long build
+        Point[][] workload = PerformanceTest.workload(clo, clo.loadTest);
+        long startTime = System.nanoTime();
+        RangeIndex<Point> tree = PerformanceTest.index(clo, workload[0]);
+        System.out.println("Preprocessing for " + clo.loadTest +
+                " points took " + (System.nanoTime() - startTime) +
+                " nanoseconds (" + tree.getClass().getSimpleName() + ")");
+        LoadTest test = new LoadTest(clo, tree, workload[1], workload[2]);
+        new Worker(test, 0, Long.MAX_VALUE, clo.warmup).call();
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int threads: clo.threadCounts) {
+            Map<String, Object> row = test.measure(threads);
+            if (!rows.isEmpty())
+                row.put("speedup", (double) row.get("queries_per_s") /
+                        (double) rows.get(0).get("queries_per_s"));
+            else
+                row.put("speedup", 1.0);
+            rows.add(row);
+            System.out.printf("%d %sthreads: %.0f queries per second " +
+                            "(%.0f per thread, %.2f times the first), " +
+                            "%.1f points found per query, " +
+                            "latency in nanoseconds: %s, %d garbage " +
+                            "collections%n", threads, clo.virtual ?
+                            "virtual " : "", row.get("queries_per_s"),
+                    (double) row.get("queries_per_s") / threads,
+                    row.get("speedup"), row.get("found_per_query"),
+                    PerformanceTest.describeLatencies(row),
+                    row.get("gc_count"));
+        }
+        try {
+            if (clo.csv != null)
+                PerformanceTest.appendCsv(rows, Paths.get(clo.csv));
+            if (clo.json != null) {
+                StringJoiner json = new StringJoiner(",\n", "[\n", "\n]\n");
+                for (Map<String, Object> row: rows)
+                    json.add(PerformanceTest.toJson(row));
+                Files.write(Paths.get(clo.json), json.toString().getBytes());
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /** Query the tree from a number of threads for -duration seconds */
+    private Map<String, Object> measure(int threads) {
+        ExecutorService pool = clo.virtual ? virtualThreads() :
+                Executors.newFixedThreadPool(threads);
+        CountDownLatch ready = new CountDownLatch(threads);
+        List<Future<Worker>> futures = new ArrayList<>();
+        long[] gc = PerformanceTest.collections();
+        // the deadline is set once every worker has started
+        long[] deadline = new long[1];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < threads; i++) {
+            int offset = (int) ((long) mins.length * i / threads);
+            futures.add(pool.submit(() -> {
+                ready.countDown();
+                start.await();
+                return new Worker(this, offset, deadline[0],
+                        Integer.MAX_VALUE).call();
+            }));
+        }
+        Histogram latencies = new Histogram();
+        long found = 0;
+        long elapsed;
+        try {
+            ready.await();
+            long startTime = System.nanoTime();
+            deadline[0] = startTime + TimeUnit.SECONDS.toNanos(clo.duration);
+            start.countDown(); // publishes the deadline to the workers
+            for (Future<Worker> future: futures) {
+                Worker worker = future.get();
+                latencies.add(worker.latencies);
+                found += worker.found;
+            }
+            elapsed = System.nanoTime() - startTime;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Load test failed", e);
+        } finally {
+            pool.shutdown();
+        }
+        long[] gcAfter = PerformanceTest.collections();
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("points", clo.loadTest);
+        row.put("engine", tree.getClass().getSimpleName());
+        row.put("dist", clo.dist.name().toLowerCase());
+        row.put("querydist", clo.queryDist.name().toLowerCase());
+        row.put("selectivity", clo.selectivity);
+        row.put("seed", clo.seed);
+        row.put("threads", threads);
+        row.put("virtual", clo.virtual);
+        row.put("queries", latencies.getCount());
+        row.put("queries_per_s", latencies.getCount() * 1e9 / elapsed);
+        row.put("found_per_query", (double) found /
+                Math.max(1, latencies.getCount()));
+        PerformanceTest.putLatencies(row, latencies);
+        row.put("gc_count", gcAfter[0] - gc[0]);
+        row.put("gc_ms", gcAfter[1] - gc[1]);
+        return row;
+    }
+
+    /** An executor starting a virtual thread per task. Virtual threads came
+     * with Java 21, so they are looked up by reflection to still compile and
+     * run without them on older JVMs. */
+    private static ExecutorService virtualThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need Java 21 or later, this " +
+                    "is " + System.getProperty("java.version"));
+            System.exit(0);
+            return null;
+        }
+    }
+
+    /** Runs queries until a deadline or a number of queries is reached,
+     * and returns itself with the latencies of the queries and the number
+     * of points they found */
+    private static class Worker implements Callable<Worker> {
+        private final LoadTest test;
+        private final int offset; // index of the first query
+        private final long deadline; // System.nanoTime to stop at
+        private final int limit; // maximal number of queries
+        private final Histogram latencies = new Histogram();
+        private long found; // points found by all queries
+        private final Consumer<Point> counter = point -> found++;
+
+        Worker(LoadTest test, int offset, long deadline, int limit) {
+            this.test = test;
+            this.offset = offset;
+            this.deadline = deadline;
+            this.limit = limit;
+        }
+
+        @Override
+        public Worker call() {
+            int query = offset;
+            long before = System.nanoTime();
+            for (int i = 0; i < limit && before < deadline; i++) {
+                test.tree.search(test.mins[query], test.maxs[query], counter);
+                long after = System.nanoTime();
+                latencies.record(after - before);
+                before = after;
+                if (++query == test.mins.length)
+                    query = 0;
+            }
+            return this;
+        }
+    }
+}
@@ -1,12 +1,19 @@
-import geo.QueryTree2D;
-import geo.History;
+import data.BinaryFormat;
+import data.InputFile;
+import data.TextFormat;
+import data.Workload;
+import geo.IndexSelector;
+import geo.IntQueryTree2D;
 import geo.Point;
+import geo.QueryCache;
+import geo.RangeIndex;
 import gui.PointDisplayer;
 
 import javax.swing.*;
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.List;
 
 import static java.lang.Integer.max;
 import static java.lang.Integer.min;
@@ -19,124 +26,118 @@ public class Main {
             gui.MainPanel.setupFrame(clo.resolution);
             return;
         } else if (clo.performance != -1) {
-            performanceTest(clo.performance, 10);
+            PerformanceTest.run(clo);
+            return;
+        } else if (clo.loadTest != -1) {
+            LoadTest.run(clo);
+            return;
+        } else if (clo.convert != null) {
+            try {
+                BinaryFormat.convert(clo.file, clo.convert);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+            return;
+        } else if (clo.generate != null) {
+            generate(clo);
             return;
         }
-        String[] lines = readFile(clo.file);
-        if (lines.length < 1) {
-            System.out.println("Input file is empty.");
+        answerQueries(clo);
+    }
+
+    /** Read the points and the queries from the file given with -file and
+     * print the results. Queries are answered while the file is read. */
+    private static void answerQueries(CLO clo) {
+        InputFile input = null;
+        try {
+            input = InputFile.open(clo.file);
+        } catch (FileSystemException e) {
+            System.out.println("Failed to open file: " + clo.file);
             System.exit(0);
-        }
-        String[] pointStrings = lines[0].split(" ");
-        if (pointStrings.length < 1) {
-            System.out.println("No points specified.");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
             System.exit(0);
         }
-
-        // reading points to be queried
-        Point[] points = new Point[pointStrings.length];
-        for (int i = 0; i < pointStrings.length; i++) {
-            points[i] = parsePoint(pointStrings[i], 0, i);
-        }
-
-        // reading all the queries
-        Point[][] queries = new Point[lines.length - 1][2];
-        for (int i = 1; i < lines.length; i++) {
-            queries[i - 1] = new Point[2];
-            String[] corners = lines[i].split(" ");
-            if (corners.length != 2) {
-                System.out.println("Query on line " + i + 1 + " has " +
-                        corners.length + " points instead of 2.");
+        try (InputFile in = input) {
+            if (in.isEmpty()) {
+                System.out.println("Input file is empty.");
                 System.exit(0);
             }
-            Point pt1 = parsePoint(corners[0], i, 0);
-            Point pt2 = parsePoint(corners[1], i, 1);
-            queries[i - 1][0] = new Point(min(pt1.x, pt2.x), min(pt1.y, pt2.y));
-            queries[i - 1][1] = new Point(max(pt1.x, pt2.x), max(pt1.y, pt2.y));
-        }
-
-        // building the tree
-        QueryTree2D<Point> tree = new QueryTree2D<>(points, Point.COMPARE_X,
-                Point.COMPARE_Y);
-        // processing the queries
-        for (Point[] query: queries) {
-            Set<Point> result = tree.search(query[0], query[1], new History());
-            System.out.println(String.join(" ", Arrays
-                    .stream(result.toArray(new Point[0]))
-                    .map(Point::toString).toArray(String[]::new)));
-        }
-
-    }
-
-    /**
-     * Generate nPts points. Report how long does it take to:
-     * 1) build a 2d query tree for these points
-     * 2) perform a query expected to return 0 points on this set
-     * @param nPts        number of points
-     * @param nQueries    number of queries to average the result over
-     */
-    private static void performanceTest(int nPts, int nQueries) {
-        HashSet<Point> points = new HashSet<>();
-        // points' coordinates are in range (0, sqrt(n)), so a 10 by 10 query is
-        // expected to return 100 points
-        while (points.size() != nPts) {
-           points.add(Point.getRandom(0, nPts, 0, nPts));
-        }
-        Point[] pts = points.toArray(new Point[0]);
-        long startTime = System.nanoTime();
-        QueryTree2D<Point> tree = new QueryTree2D<>(pts,
-                Point.COMPARE_X,
-                Point.COMPARE_Y);
-        long treeBuildingTime = System.nanoTime() - startTime;
-        long[] queryTimes = new long[nQueries];
-        for (int i = 0; i < nQueries; i++) {
-            Point p = Point.getRandom(0, nPts, 0, nPts);
-            while (points.contains(p))
-                p = Point.getRandom(0, nPts, 0, nPts);
-            startTime = System.nanoTime();
-            tree.search(p, p, new History());
-            queryTimes[i] = System.nanoTime() - startTime;
-        }
-        long meanQueryTime = Arrays.stream(queryTimes).sum() / nQueries;
-        System.out.println("Preprocessing for " + nPts + " points took " +
-                treeBuildingTime + " nanoseconds");
-        System.out.println("Querying " + nPts + " points took " + meanQueryTime +
-                " nanoseconds (average over " + nQueries + " runs)");
-    }
-
-    /** Read the file into a list of lines */
-    private static String[] readFile(String filename) {
-        try {
-            Scanner sc = new Scanner(new File(filename));
-            List<String> lines = new ArrayList<>();
-            while (sc.hasNextLine()) {
-                lines.add(sc.nextLine());
+            RangeIndex<Point> tree;
+            if (clo.index != null) {
+                // loading the tree instead of building it
+                in.skipPoints();
+                tree = IntQueryTree2D.open(Paths.get(clo.index));
+            } else {
+                // reading points to be queried
+                int[][] points = in.readPoints();
+                if (points[0].length < 1) {
+                    System.out.println("No points specified.");
+                    System.exit(0);
+                }
+                // building the tree
+                tree = clo.engine == null ? IndexSelector.build(points[0],
+                        points[1], clo.selectivity) :
+                        clo.engine.build(points[0], points[1]);
+                if (clo.saveIndex != null)
+                    ((IntQueryTree2D) tree).save(Paths.get(clo.saveIndex));
+            }
+            // reading and processing the queries
+            QueryCache<Point> cache = clo.cache == -1 ? null :
+                    new QueryCache<>(Point.COMPARE_X, Point.COMPARE_Y,
+                            (x, y) -> new Point(x.x, y.y), clo.cache,
+                            Runtime.getRuntime().maxMemory() / 4);
+            BatchRunner.Query query = clo.count ?
+                    (min, max) -> Integer.toString(tree.count(min, max)) :
+                    clo.limit != -1 ? (min, max) -> {
+                        StringJoiner result = new StringJoiner(" ");
+                        tree.search(min, max, clo.limit,
+                                point -> result.add(point.toString()));
+                        return result.toString();
+                    } :
+                    cache != null ? (min, max) -> join(new HashSet<>(
+                            cache.search(min, max, tree::search))) :
+                    (min, max) -> join(tree.search(min, max));
+            try (BatchRunner runner = new BatchRunner(query, System.out,
+                    clo.threads, clo.reorder)) {
+                int[] corners = new int[4];
+                while (in.nextQuery(corners)) {
+                    runner.add(new Point(min(corners[0], corners[2]),
+                                    min(corners[1], corners[3])),
+                            new Point(max(corners[0], corners[2]),
+                                    max(corners[1], corners[3])));
+                }
             }
-            return lines.toArray(new String[0]);
-        } catch (Exception e) {
-            System.out.println("Failed to open file: " + filename);
+            if (cache != null)
+                System.err.println("Cache: " + cache);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
             System.exit(0);
         }
-        return null;
     }
 
-    public static Point parsePoint(String s, int line, int pID) {
-        int x = 0, y = 0;
-        String message = "Failed to parse point " + pID + " on line " + line;
-        String[] parts = s.split(",");
-        if (parts.length != 2) {
-            System.out.println(message);
-            System.exit(0);
-        }
-        try {
-            x = Integer.parseInt(parts[0]);
-            y = Integer.parseInt(parts[1]);
-        } catch (NumberFormatException e2) {
-            System.out.println(message);
-            System.exit(0);
-        }
-        return new Point(x, y);
+    /** The points separated by spaces */
+    private static String join(Set<Point> points) {
+        StringJoiner result = new StringJoiner(" ");
+        for (Point point: points)
+            result.add(point.toString());
+        return result.toString();
+    }
 
+    /** Write the workload described by -generate and its options */
+    private static void generate(CLO clo) {
+        Workload workload = new Workload(clo.seed);
+        int[][] points = workload.points(clo.dist, clo.points);
+        int[][] queries = workload.queries(clo.queryDist, clo.queries,
+                clo.selectivity, points);
+        try (TextFormat out = new TextFormat(Paths.get(clo.generate),
+                points[0], points[1])) {
+            for (int i = 0; i < clo.queries; i++)
+                out.addQuery(queries[0][i], queries[1][i], queries[2][i],
+                        queries[3][i]);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
     }
 
     public static class Tuple<T,K> {
@@ -0,0 +1,219 @@
+import bench.Histogram;
+import data.Workload;
+import geo.IndexSelector;
+import geo.Point;
+import geo.RangeIndex;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+
+/** The -performance mode. Builds an index over generated points, runs
+ * warmup queries so that the JIT compiler is done with the search, and then
+ * times every measured query on its own. Means hide the slow queries, so the
+ * latencies go to a histogram and are reported as percentiles, together with
+ * the throughput and the garbage collections and allocations during the
+ * measured queries. */
+public class PerformanceTest {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final CLO clo;
+    private final Map<String, Object> results; // in the order of reporting
+
+    private PerformanceTest(CLO clo) {
+        this.clo = clo;
+        this.results = new LinkedHashMap<>();
+    }
+
+    /** Run the test described by the command line options and report the
+     * results */
+    public static void run(CLO clo) {
+        PerformanceTest test = new PerformanceTest(clo);
+        test.measure();
+        test.print();
+        try {
+            if (clo.csv != null)
+                appendCsv(Collections.singletonList(test.results),
+                        Paths.get(clo.csv));
+            if (clo.json != null)
+                Files.write(Paths.get(clo.json),
+                        (toJson(test.results) + "\n").getBytes());
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void measure() {
+        int nPts = clo.performance;
+        Point[][] workload = workload(clo, nPts);
+        Point[] points = workload[0], mins = workload[1], maxs = workload[2];
+
+        long startTime = System.nanoTime();
+        RangeIndex<Point> tree = index(clo, points);
+        long treeBuildingTime = System.nanoTime() - startTime;
+
+        long[] found = new long[1];
+        Consumer<Point> counter = point -> found[0]++;
+        for (int i = 0; i < clo.warmup; i++)
+            tree.search(mins[i % clo.queries], maxs[i % clo.queries], counter);
+
+        Histogram latencies = new Histogram();
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)
+                        ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long[] gc = collections();
+        long allocated = threads.getThreadAllocatedBytes(id);
+        found[0] = 0;
+        startTime = System.nanoTime();
+        long before = startTime;
+        for (int i = 0; i < clo.queries; i++) {
+            tree.search(mins[i], maxs[i], counter);
+            long after = System.nanoTime();
+            latencies.record(after - before);
+            before = after;
+        }
+        long elapsed = before - startTime;
+        allocated = threads.getThreadAllocatedBytes(id) - allocated;
+        long[] gcAfter = collections();
+
+        results.put("points", nPts);
+        results.put("engine", tree.getClass().getSimpleName());
+        results.put("dist", clo.dist.name().toLowerCase());
+        results.put("querydist", clo.queryDist.name().toLowerCase());
+        results.put("selectivity", clo.selectivity);
+        results.put("seed", clo.seed);
+        results.put("warmup", clo.warmup);
+        results.put("queries", clo.queries);
+        results.put("build_ns", treeBuildingTime);
+        results.put("found_per_query", (double) found[0] / clo.queries);
+        results.put("queries_per_s", clo.queries * 1e9 / elapsed);
+        putLatencies(results, latencies);
+        results.put("gc_count", gcAfter[0] - gc[0]);
+        results.put("gc_ms", gcAfter[1] - gc[1]);
+        results.put("allocated_bytes", allocated);
+    }
+
+    /** Points and the lower and upper corners of queries generated as the
+     * command line options say */
+    static Point[][] workload(CLO clo, int nPts) {
+        Workload workload = new Workload(clo.seed);
+        int[][] coordinates = workload.points(clo.dist, nPts);
+        int[][] corners = workload.queries(clo.queryDist, clo.queries,
+                clo.selectivity, coordinates);
+        Point[] points = new Point[nPts];
+        for (int i = 0; i < nPts; i++)
+            points[i] = new Point(coordinates[0][i], coordinates[1][i]);
+        Point[] mins = new Point[clo.queries], maxs = new Point[clo.queries];
+        for (int i = 0; i < clo.queries; i++) {
+            mins[i] = new Point(corners[0][i], corners[1][i]);
+            maxs[i] = new Point(corners[2][i], corners[3][i]);
+        }
+        return new Point[][] {points, mins, maxs};
+    }
+
+    /** The index of the points that -engine asks for */
+    static RangeIndex<Point> index(CLO clo, Point[] points) {
+        if (clo.engine != null)
+            return clo.engine.build(points);
+        return IndexSelector.build(
+                Arrays.stream(points).mapToInt(p -> p.x).toArray(),
+                Arrays.stream(points).mapToInt(p -> p.y).toArray(),
+                clo.selectivity);
+    }
+
+    /** Add the mean, percentiles and maximum of latencies to results */
+    static void putLatencies(Map<String, Object> results,
+                             Histogram latencies) {
+        results.put("mean_ns", latencies.getMean());
+        for (double percentile: PERCENTILES)
+            results.put(percentileName(percentile) + "_ns",
+                    latencies.percentile(percentile));
+        results.put("max_ns", latencies.getMax());
+    }
+
+    /** The latencies added by putLatencies, e.g. "mean 12, p50 10, ..." */
+    static String describeLatencies(Map<String, Object> results) {
+        StringBuilder result = new StringBuilder(String.format("mean %.0f",
+                results.get("mean_ns")));
+        for (double percentile: PERCENTILES)
+            result.append(", p").append(percentile == Math.rint(percentile) ?
+                    Long.toString((long) percentile) : percentile)
+                    .append(" ").append(results.get(
+                            percentileName(percentile) + "_ns"));
+        return result.append(", max ").append(results.get("max_ns"))
+                .toString();
+    }
+
+    /** Number of garbage collections so far and milliseconds they took */
+    static long[] collections() {
+        long[] result = new long[2];
+        for (GarbageCollectorMXBean collector:
+                ManagementFactory.getGarbageCollectorMXBeans()) {
+            result[0] += Math.max(0, collector.getCollectionCount());
+            result[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return result;
+    }
+
+    /** p50, p99.9, ... */
+    private static String percentileName(double percentile) {
+        return "p" + (percentile == Math.rint(percentile) ?
+                Long.toString((long) percentile) :
+                Double.toString(percentile).replace(".", ""));
+    }
+
+    private void print() {
+        System.out.println("Preprocessing for " + results.get("points") +
+                " points took " + results.get("build_ns") + " nanoseconds (" +
+                results.get("engine") + ")");
+        System.out.printf("Querying %d points %d times after %d warmup " +
+                        "queries: %.0f queries per second, %.1f points " +
+                        "found per query%n", results.get("points"),
+                results.get("queries"), results.get("warmup"),
+                results.get("queries_per_s"), results.get("found_per_query"));
+        System.out.println("Latency in nanoseconds: " +
+                describeLatencies(results));
+        long allocated = (Long) results.get("allocated_bytes");
+        System.out.printf("Garbage collections: %d taking %d ms, %d bytes " +
+                        "allocated (%.1f per query)%n", results.get("gc_count"),
+                results.get("gc_ms"), allocated,
+                (double) allocated / clo.queries);
+    }
+
+    /** Append rows of results with the same keys to a CSV file, with a
+     * header line first if the file does not exist yet, so that runs can be
+     * compared over time */
+    static void appendCsv(List<Map<String, Object>> rows, Path path)
+            throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (!Files.exists(path) && !rows.isEmpty())
+            lines.add(String.join(",", rows.get(0).keySet()));
+        for (Map<String, Object> row: rows) {
+            List<String> values = new ArrayList<>();
+            for (Object value: row.values())
+                values.add(value.toString());
+            lines.add(String.join(",", values));
+        }
+        Files.write(path, lines, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    /** Results as a flat JSON object */
+    static String toJson(Map<String, Object> results) {
+        StringJoiner json = new StringJoiner(",\n  ", "{\n  ", "\n}");
+        for (Map.Entry<String, Object> entry: results.entrySet()) {
+            Object value = entry.getValue();
+            json.add("\"" + entry.getKey() + "\": " + (value instanceof
+                    String ? "\"" + value + "\"" : value));
+        }
+        return json.toString();
+    }
+}
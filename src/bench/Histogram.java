@@ -0,0 +1,89 @@
+package bench;
+
+/** Counts of non-negative values, such as latencies in nanoseconds, in
+ * buckets whose width grows with the value, like HdrHistogram: values below
+ * 128 get a bucket each, and every larger power of two is split into 64
+ * buckets. Any value is thus known to within 1.6%, recording is a few
+ * shifts and an increment, and the whole range of long takes 30 KB.
+ * Not thread-safe; give every thread its own histogram and merge them. */
+public class Histogram {
+
+    private static final int SUB_BUCKETS = 64; // buckets per power of two
+    private static final int SHIFT_BITS = 6; // log2(SUB_BUCKETS)
+
+    private final long[] counts = new long[index(Long.MAX_VALUE) + 1];
+    private long total; // number of recorded values
+    private long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+    private double sum;
+
+    /** Record a value. Negative values are recorded as 0. */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /** Add the values recorded by another histogram to this one */
+    public void add(Histogram other) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /** Index of the bucket of a value */
+    private static int index(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SHIFT_BITS;
+        return SUB_BUCKETS * shift + (int) (value >>> shift);
+    }
+
+    /** Largest value that falls into a bucket */
+    private static long highest(int index) {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long first = (long) (index - SUB_BUCKETS * shift) << shift;
+        return first + (1L << shift) - 1;
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return A value such that the given percentage of the recorded values
+     * is at most that value, or 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(highest(i), max);
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public long getMin() {
+        return total == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return total == 0 ? 0 : max;
+    }
+
+    public double getMean() {
+        return total == 0 ? 0 : sum / total;
+    }
+}
@@ -0,0 +1,115 @@
+package data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** Writes points and queries in the binary format of the -file mode.
+ * All numbers are little-endian:
+ * <pre>
+ * int32  MAGIC ("RQ2D")
+ * int32  VERSION
+ * int64  number of points n
+ * int64  number of queries q
+ * n times:  int32 x, int32 y                       (the points)
+ * q times:  int32 x1, int32 y1, int32 x2, int32 y2 (the query corners)
+ * </pre>
+ * The number of queries is written when the file is closed, so queries can
+ * be added one by one. */
+public class BinaryFormat implements AutoCloseable {
+
+    public static final int MAGIC = 0x44325152; // "RQ2D" in little-endian
+    public static final int VERSION = 1;
+    static final int HEADER_SIZE = 24; // bytes
+    static final int POINT_SIZE = 8; // bytes
+    static final int QUERY_SIZE = 16; // bytes
+
+    private static final int BUFFER_SIZE = 1 << 20; // bytes written at once
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long queries; // number of queries written so far
+
+    /**
+     * Create the file and write the points to it
+     * @param path Where to write
+     * @param xs   x coordinates of the points
+     * @param ys   y coordinates of the points
+     */
+    public BinaryFormat(Path path, int[] xs, int[] ys) throws IOException {
+        if (xs.length != ys.length)
+            throw new IllegalArgumentException("Got " + xs.length +
+                    " x coordinates but " + ys.length + " y coordinates");
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(xs.length)
+                    .putLong(0);
+            for (int i = 0; i < xs.length; i++) {
+                if (buffer.remaining() < POINT_SIZE)
+                    drain();
+                buffer.putInt(xs[i]).putInt(ys[i]);
+            }
+        } catch (Throwable e) {
+            // nobody can close a file that was not constructed
+            try {
+                channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /** Append a query given by two of its corners */
+    public void addQuery(int x1, int y1, int x2, int y2) throws IOException {
+        if (buffer.remaining() < QUERY_SIZE)
+            drain();
+        buffer.putInt(x1).putInt(y1).putInt(x2).putInt(y2);
+        queries++;
+    }
+
+    /** Write the buffered bytes to the file */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /** Write the remaining queries and their number */
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+            buffer.putLong(queries).flip();
+            long position = 16; // where the number of queries is stored
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** Convert a file from any supported format to the binary one */
+    public static void convert(String from, String to) throws IOException {
+        try (InputFile input = InputFile.open(from)) {
+            int[][] points = input.isEmpty() ? new int[2][0] :
+                    input.readPoints();
+            try (BinaryFormat output = new BinaryFormat(Paths.get(to),
+                    points[0], points[1])) {
+                int[] corners = new int[4];
+                while (input.nextQuery(corners))
+                    output.addQuery(corners[0], corners[1], corners[2],
+                            corners[3]);
+            }
+        }
+    }
+}
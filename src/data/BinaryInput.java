@@ -0,0 +1,108 @@
+package data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Reads a file in the binary format (see BinaryFormat) by memory-mapping
+ * it. Coordinates are copied from the mapping as they are, so loading is
+ * bounded by the disk rather than by parsing. The file is mapped in windows,
+ * so files larger than 2 GB are supported. */
+public class BinaryInput implements InputFile {
+
+    private static final long WINDOW_SIZE = 1L << 28; // bytes mapped at once
+
+    private final FileChannel channel;
+    private final long points, queries; // numbers of points and queries
+    private long next; // the first byte that is not mapped yet
+    private long sectionEnd; // where the points or the queries end
+    private long queriesRead;
+    private IntBuffer window; // the mapped part of the file being read
+
+    public BinaryInput(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(BinaryFormat.HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header) >= 0) { }
+        if (header.hasRemaining() ||
+                header.getInt(0) != BinaryFormat.MAGIC)
+            throw failure("Not a binary point file: " + path);
+        if (header.getInt(4) != BinaryFormat.VERSION)
+            throw failure("Unsupported version " + header.getInt(4) +
+                    " of the binary format in " + path);
+        this.points = header.getLong(8);
+        this.queries = header.getLong(16);
+        // the counts are checked before they are multiplied, so that a
+        // corrupt header cannot overflow into the right file size
+        long size = channel.size();
+        if (points < 0 || points > Integer.MAX_VALUE || queries < 0 ||
+                queries > size / BinaryFormat.QUERY_SIZE ||
+                size != Math.addExact(Math.addExact(BinaryFormat.HEADER_SIZE,
+                        Math.multiplyExact(points, BinaryFormat.POINT_SIZE)),
+                        Math.multiplyExact(queries, BinaryFormat.QUERY_SIZE)))
+            throw failure("Binary point file " + path + " is truncated " +
+                    "or corrupt");
+        this.next = BinaryFormat.HEADER_SIZE;
+        this.sectionEnd = next + points * BinaryFormat.POINT_SIZE;
+    }
+
+    private IOException failure(String message) throws IOException {
+        channel.close();
+        return new IOException(message);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return points == 0 && queries == 0;
+    }
+
+    @Override
+    public int[][] readPoints() throws IOException {
+        int[] xs = new int[(int) points], ys = new int[(int) points];
+        for (int i = 0; i < xs.length; i++) {
+            if (window == null || !window.hasRemaining())
+                mapNext(BinaryFormat.POINT_SIZE);
+            xs[i] = window.get();
+            ys[i] = window.get();
+        }
+        window = null;
+        sectionEnd = channel.size(); // the queries follow
+        return new int[][] {xs, ys};
+    }
+
+    @Override
+    public void skipPoints() throws IOException {
+        next = sectionEnd;
+        sectionEnd = channel.size();
+    }
+
+    @Override
+    public boolean nextQuery(int[] corners) throws IOException {
+        if (queriesRead == queries)
+            return false;
+        if (window == null || !window.hasRemaining())
+            mapNext(BinaryFormat.QUERY_SIZE);
+        window.get(corners, 0, 4);
+        queriesRead++;
+        return true;
+    }
+
+    /** Map the next window of the current section. The window holds
+     * whole records of a given size. */
+    private void mapNext(int recordSize) throws IOException {
+        long size = Math.min(WINDOW_SIZE / recordSize * recordSize,
+                sectionEnd - next);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, next, size)
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        next += size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
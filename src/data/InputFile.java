@@ -0,0 +1,49 @@
+package data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** Points and queries of the -file mode. The points have to be read first,
+ * then the queries are read one by one. */
+public interface InputFile extends AutoCloseable {
+
+    /** Whether the file holds neither points nor queries */
+    boolean isEmpty() throws IOException;
+
+    /** @return Two arrays of the same length: x and y coordinates */
+    int[][] readPoints() throws IOException;
+
+    /** Skip the points, e.g. when the tree is loaded from a snapshot */
+    void skipPoints() throws IOException;
+
+    /**
+     * Read the next query.
+     * @param corners Receives x and y of the first corner followed by x and
+     *                y of the second one
+     * @return false if there are no more queries
+     */
+    boolean nextQuery(int[] corners) throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /** Open a file in the binary format if it starts with its magic number
+     * and in the text format otherwise */
+    static InputFile open(String filename) throws IOException {
+        Path path = Paths.get(filename);
+        ByteBuffer magic = ByteBuffer.allocate(4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            while (magic.hasRemaining() && channel.read(magic) >= 0) { }
+        }
+        if (!magic.hasRemaining() && magic.getInt(0) == BinaryFormat.MAGIC)
+            return new BinaryInput(path);
+        return new TextInput(path);
+    }
+}
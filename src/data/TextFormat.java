@@ -0,0 +1,43 @@
+package data;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Writes points and queries in the text format of the -file mode (see
+ * TextInput): the points on the first line, a query on every other one. */
+public class TextFormat implements AutoCloseable {
+
+    private final BufferedWriter writer;
+
+    /**
+     * Create the file and write the points to it
+     * @param path Where to write
+     * @param xs   x coordinates of the points
+     * @param ys   y coordinates of the points
+     */
+    public TextFormat(Path path, int[] xs, int[] ys) throws IOException {
+        if (xs.length != ys.length)
+            throw new IllegalArgumentException("Got " + xs.length +
+                    " x coordinates but " + ys.length + " y coordinates");
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.US_ASCII);
+        for (int i = 0; i < xs.length; i++) {
+            if (i > 0)
+                writer.write(' ');
+            writer.write(xs[i] + "," + ys[i]);
+        }
+        writer.write('\n');
+    }
+
+    /** Append a query given by two of its corners */
+    public void addQuery(int x1, int y1, int x2, int y2) throws IOException {
+        writer.write(x1 + "," + y1 + " " + x2 + "," + y2 + "\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
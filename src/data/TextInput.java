@@ -0,0 +1,182 @@
+package data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** Streaming parser for the text input of the -file mode: the first line
+ * holds the points as "x,y" separated by spaces and every following line
+ * holds the two corners of a query. The file is read through a FileChannel
+ * in fixed-size chunks and integers are parsed straight from the bytes, so
+ * no strings are created and only the points are kept in memory. Queries
+ * are returned one by one, so they can be answered while the rest of the
+ * file is still being read. */
+public class TextInput implements InputFile {
+
+    private static final int CHUNK_SIZE = 1 << 20; // bytes read at once
+    private static final int EOF = -1;
+
+    private final FileChannel channel;
+    private final byte[] chunk;
+    private final ByteBuffer buffer; // wraps chunk
+    private int position, limit; // unread bytes are chunk[position...limit)
+    private int line; // number of the current line, starting from 1
+
+    public TextInput(String filename) throws IOException {
+        this(Paths.get(filename));
+    }
+
+    public TextInput(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.chunk = new byte[CHUNK_SIZE];
+        this.buffer = ByteBuffer.wrap(chunk);
+        this.line = 1;
+    }
+
+    @Override
+    public boolean isEmpty() throws IOException {
+        return peek() == EOF;
+    }
+
+    /** Read the points from the first line */
+    @Override
+    public int[][] readPoints() throws IOException {
+        int[] xs = new int[1024], ys = new int[1024];
+        int size = 0;
+        skipSpaces();
+        while (!atLineEnd()) {
+            if (size == xs.length) {
+                xs = Arrays.copyOf(xs, 2 * size);
+                ys = Arrays.copyOf(ys, 2 * size);
+            }
+            xs[size] = readInt(size);
+            expect(',', size);
+            ys[size] = readInt(size);
+            if (!atLineEnd())
+                expectSpace(size);
+            size++;
+            skipSpaces();
+        }
+        nextLine();
+        return new int[][] {Arrays.copyOf(xs, size), Arrays.copyOf(ys, size)};
+    }
+
+    @Override
+    public void skipPoints() throws IOException {
+        while (peek() != '\n' && peek() != EOF)
+            position++;
+        nextLine();
+    }
+
+    /** Read the next query. Empty lines are skipped. */
+    @Override
+    public boolean nextQuery(int[] corners) throws IOException {
+        skipSpaces();
+        while (peek() == '\n' || peek() == '\r') {
+            nextLine();
+            skipSpaces();
+        }
+        if (peek() == EOF)
+            return false;
+        for (int pID = 0; pID < 2; pID++) {
+            if (atLineEnd())
+                throw new IOException("Query on line " + line + " has " +
+                        pID + " points instead of 2.");
+            corners[2 * pID] = readInt(pID);
+            expect(',', pID);
+            corners[2 * pID + 1] = readInt(pID);
+            if (pID == 0 && !atLineEnd())
+                expectSpace(pID);
+            skipSpaces();
+        }
+        if (!atLineEnd())
+            throw new IOException("Query on line " + line + " has more " +
+                    "than 2 points.");
+        nextLine();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** The next byte or EOF, without consuming it */
+    private int peek() throws IOException {
+        if (position == limit && !fill())
+            return EOF;
+        return chunk[position];
+    }
+
+    /** Read the next chunk of the file. Return false at the end of file. */
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    private boolean atLineEnd() throws IOException {
+        int next = peek();
+        return next == '\n' || next == '\r' || next == EOF;
+    }
+
+    /** Consume the end of the current line */
+    private void nextLine() throws IOException {
+        if (peek() == '\r')
+            position++;
+        if (peek() == '\n')
+            position++;
+        line++;
+    }
+
+    private void skipSpaces() throws IOException {
+        while (peek() == ' ' || peek() == '\t')
+            position++;
+    }
+
+    private void expectSpace(int pID) throws IOException {
+        if (peek() != ' ' && peek() != '\t')
+            throw failure(pID);
+    }
+
+    private void expect(char expected, int pID) throws IOException {
+        if (peek() != expected)
+            throw failure(pID);
+        position++;
+    }
+
+    /** Parse an integer, which may start with a minus */
+    private int readInt(int pID) throws IOException {
+        boolean negative = peek() == '-';
+        if (negative)
+            position++;
+        long value = 0;
+        int digits = 0;
+        for (int next = peek(); next >= '0' && next <= '9'; next = peek()) {
+            value = value * 10 + (next - '0');
+            if (value > (long) Integer.MAX_VALUE + 1)
+                throw failure(pID);
+            position++;
+            digits++;
+        }
+        if (negative)
+            value = -value;
+        if (digits == 0 || value > Integer.MAX_VALUE)
+            throw failure(pID);
+        return (int) value;
+    }
+
+    private IOException failure(int pID) {
+        return new IOException("Failed to parse point " + pID + " on line " +
+                line);
+    }
+}
@@ -0,0 +1,169 @@
+package data;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/** Generates points and queries that look like real data rather than
+ * uniform noise. Everything depends only on the seed, so a workload can be
+ * generated again instead of being stored. Points are returned as
+ * {xs, ys} and queries as {x1s, y1s, x2s, y2s}, all within [0, range). */
+public class Workload {
+
+    public static final int DEFAULT_RANGE = 1 << 20;
+    private static final double ZIPF_EXPONENT = 1; // classic Zipf's law
+    private static final int HOTSPOTS = 1024; // places queries go to
+
+    /** How the points are spread over the plane */
+    public enum Points {
+        UNIFORM, // uniformly at random
+        CLUSTERED, // Gaussian clusters with Zipf-distributed sizes (cities)
+        GRID, // on a coarse grid, so many points coincide
+        EQUAL_X; // few distinct x coordinates, many points share each
+
+        public static Points byName(String name) {
+            return valueOf(name.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /** Where the queries go */
+    public enum Queries {
+        UNIFORM, // uniformly at random
+        ZIPF; // around a few hotspots, the k-th one asked with frequency
+              // proportional to 1/k
+
+        public static Queries byName(String name) {
+            return valueOf(name.toUpperCase());
+        }
+    }
+
+    private final Random random;
+    private final int range;
+
+    public Workload(long seed) {
+        this(seed, DEFAULT_RANGE);
+    }
+
+    /**
+     * @param seed  Seed of the random numbers
+     * @param range Coordinates are in [0, range)
+     */
+    public Workload(long seed, int range) {
+        if (range < 1)
+            throw new IllegalArgumentException("Range must be positive");
+        this.random = new Random(seed);
+        this.range = range;
+    }
+
+    /** n points with a given distribution */
+    public int[][] points(Points distribution, int n) {
+        int[] xs = new int[n], ys = new int[n];
+        switch (distribution) {
+            case UNIFORM:
+                for (int i = 0; i < n; i++) {
+                    xs[i] = random.nextInt(range);
+                    ys[i] = random.nextInt(range);
+                }
+                break;
+            case CLUSTERED:
+                int clusters = Math.max(1, (int) Math.sqrt(n));
+                int[][] centers = points(Points.UNIFORM, clusters);
+                double[] spreads = new double[clusters];
+                for (int c = 0; c < clusters; c++)
+                    spreads[c] = range * (0.001 + 0.01 * random.nextDouble());
+                double[] sizes = zipf(clusters);
+                for (int i = 0; i < n; i++) {
+                    int c = pick(sizes);
+                    xs[i] = clamp(centers[0][c] +
+                            random.nextGaussian() * spreads[c]);
+                    ys[i] = clamp(centers[1][c] +
+                            random.nextGaussian() * spreads[c]);
+                }
+                break;
+            case GRID:
+                // about 4 points per grid node
+                int lines = Math.max(1, (int) Math.sqrt(n / 4.0));
+                int step = Math.max(1, range / lines);
+                for (int i = 0; i < n; i++) {
+                    xs[i] = clamp((double) step * random.nextInt(lines));
+                    ys[i] = clamp((double) step * random.nextInt(lines));
+                }
+                break;
+            case EQUAL_X:
+                int columns = Math.max(1, (int) Math.cbrt(n));
+                int[] columnXs = new int[columns];
+                for (int c = 0; c < columns; c++)
+                    columnXs[c] = random.nextInt(range);
+                for (int i = 0; i < n; i++) {
+                    xs[i] = columnXs[random.nextInt(columns)];
+                    ys[i] = random.nextInt(range);
+                }
+                break;
+        }
+        return new int[][] {xs, ys};
+    }
+
+    /**
+     * Square queries with a given distribution
+     * @param distribution Where the queries go
+     * @param count        Number of queries
+     * @param selectivity  Fraction of the plane covered by a query. 0 makes
+     *                     queries of single points.
+     * @param points       The points, whose positions are the hotspots of
+     *                     Zipf queries
+     */
+    public int[][] queries(Queries distribution, int count, double selectivity,
+                           int[][] points) {
+        if (selectivity < 0 || selectivity > 1)
+            throw new IllegalArgumentException("Selectivity must be " +
+                    "between 0 and 1");
+        int side = (int) (Math.sqrt(selectivity) * (range - 1));
+        int[] x1s = new int[count], y1s = new int[count];
+        int[] x2s = new int[count], y2s = new int[count];
+        int hotspots = Math.min(HOTSPOTS, points[0].length);
+        int[] hotspot = new int[hotspots];
+        for (int h = 0; h < hotspots; h++)
+            hotspot[h] = random.nextInt(points[0].length);
+        double[] frequencies = zipf(hotspots);
+        for (int i = 0; i < count; i++) {
+            int x, y;
+            if (distribution == Queries.UNIFORM || hotspots == 0) {
+                x = random.nextInt(range - side);
+                y = random.nextInt(range - side);
+            } else {
+                int h = hotspot[pick(frequencies)];
+                x = Math.min(Math.max(0, points[0][h] - side / 2),
+                        range - 1 - side);
+                y = Math.min(Math.max(0, points[1][h] - side / 2),
+                        range - 1 - side);
+            }
+            x1s[i] = x;
+            y1s[i] = y;
+            x2s[i] = x + side;
+            y2s[i] = y + side;
+        }
+        return new int[][] {x1s, y1s, x2s, y2s};
+    }
+
+    /** Cumulative Zipf frequencies of ranks 1...count */
+    private static double[] zipf(int count) {
+        double[] cumulative = new double[count];
+        double sum = 0;
+        for (int k = 0; k < count; k++) {
+            sum += 1 / Math.pow(k + 1, ZIPF_EXPONENT);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < count; k++)
+            cumulative[k] /= sum;
+        return cumulative;
+    }
+
+    /** A random index with the given cumulative frequencies */
+    private int pick(double[] cumulative) {
+        int at = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(at < 0 ? -at - 1 : at, cumulative.length - 1);
+    }
+
+    private int clamp(double coordinate) {
+        return (int) Math.max(0, Math.min(range - 1, coordinate));
+    }
+}
@@ -8,7 +8,7 @@ import java.util.HashMap;
 
 /** Stores the history of how the last query was processed step by step to
  * enable replay mode in the GUI */
-public class History {
+public class History implements SearchListener {
 
     private final HashMap<Object, ArrayList<StatusUpdate>> history;
     private final ArrayList<Tuple<Object, StatusUpdate>> updateList;
@@ -26,6 +26,7 @@ public class History {
      * @param status    The new status to be assigned to the object
      * @param sameStep  Whether to perform update simultaneously with the last
      */
+    @Override
     public void updateStatus(Object object, Status status, boolean sameStep) {
         if (!sameStep)
             step++;
@@ -35,6 +36,7 @@ public class History {
         updateList.add(new Tuple<>(object, update));
     }
 
+    @Override
     public void updateStatus(Object object, Status status) {
         updateStatus(object, status, false);
     }
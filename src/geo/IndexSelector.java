@@ -0,0 +1,128 @@
+package geo;
+
+import java.util.*;
+
+/** Picks the RangeIndex engine for a set of points from their number, how
+ * evenly they are spread and the expected selectivity of the queries, i.e.
+ * the fraction of the bounding box of the points a query covers. A grid
+ * beats the trees by far as long as its cells hold few points each, since
+ * a query then scans little more than the points it finds, and it takes
+ * O(n) space. On skewed points, a query scans whole crowded cells on the
+ * border of its rectangle, which only pays off if it finds about as many
+ * points anyway. Otherwise a layered range tree answers it in O(log n + k)
+ * time, which makes up for its slower start against IntQueryTree2D as soon
+ * as queries find any points, and a kd-tree answers it in O(sqrt(n) + k)
+ * time if the O(n log n) space of the trees does not fit in memory. */
+public class IndexSelector {
+
+    /** The engines behind RangeIndex */
+    public enum Engine {
+        TREE, INT_TREE, LAYERED, KD_TREE, GRID;
+
+        public RangeIndex<Point> build(int[] x, int[] y) {
+            switch (this) {
+                case INT_TREE:
+                    return new IntQueryTree2D(x, y);
+                case GRID:
+                    return new UniformGrid(x, y);
+                default:
+                    return build(toPoints(x, y));
+            }
+        }
+
+        /** Build the engine over the points. The array is not modified. */
+        public RangeIndex<Point> build(Point[] points) {
+            switch (this) {
+                case TREE:
+                    return new QueryTree2D<>(points.clone(), Point.COMPARE_X,
+                            Point.COMPARE_Y);
+                case INT_TREE:
+                    return new IntQueryTree2D(points);
+                case LAYERED:
+                    return new LayeredRangeTree<>(points, Point.COMPARE_X,
+                            Point.COMPARE_Y);
+                case KD_TREE:
+                    return new KdTree<>(points, Point.COMPARE_X,
+                            Point.COMPARE_Y);
+                default:
+                    return new UniformGrid(points);
+            }
+        }
+
+        /** The engine with a name like "kd-tree", ignoring the case */
+        public static Engine byName(String name) {
+            return valueOf(name.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    // the grid is used if the cell of a point holds at most this many points
+    // on average. Evenly spread points give about UniformGrid.CELL_POINTS.
+    static final double MAX_CELL_LOAD = 8 * UniformGrid.CELL_POINTS;
+    // estimated bytes per point and level of IntQueryTree2D and of
+    // LayeredRangeTree
+    static final long INT_TREE_BYTES = 24, LAYERED_BYTES = 12;
+
+    private IndexSelector() {
+    }
+
+    /**
+     * @param x           x coordinates of the points
+     * @param y           y coordinates of the points
+     * @param selectivity Expected fraction of the bounding box of the points
+     *                    covered by a query, between 0 and 1
+     * @param maxBytes    Memory the index may take
+     */
+    public static Engine choose(int[] x, int[] y, double selectivity,
+                                long maxBytes) {
+        int n = x.length;
+        double load = cellLoad(x, y);
+        if (load <= MAX_CELL_LOAD || selectivity * n >= load)
+            return Engine.GRID;
+        long entries = (long) n * (32 - Integer.numberOfLeadingZeros(
+                Math.max(1, n))); // per level of the trees
+        if (selectivity * n < 1 && INT_TREE_BYTES * entries <= maxBytes)
+            return Engine.INT_TREE;
+        return LAYERED_BYTES * entries <= maxBytes ? Engine.LAYERED :
+                Engine.KD_TREE;
+    }
+
+    /** Build the engine chosen for the points, with a quarter of the
+     * maximal heap for the index */
+    public static RangeIndex<Point> build(int[] x, int[] y,
+                                          double selectivity) {
+        return choose(x, y, selectivity, Runtime.getRuntime().maxMemory() / 4)
+                .build(x, y);
+    }
+
+    /** The mean number of points in the cell of a point in a UniformGrid
+     * over the points, about UniformGrid.CELL_POINTS if they are spread
+     * evenly and up to n if they are all in one cell */
+    static double cellLoad(int[] x, int[] y) {
+        int cells = UniformGrid.cellsPerSide(x.length);
+        int xMin = Integer.MAX_VALUE, xMax = Integer.MIN_VALUE;
+        int yMin = Integer.MAX_VALUE, yMax = Integer.MIN_VALUE;
+        for (int i = 0; i < x.length; i++) {
+            xMin = Math.min(xMin, x[i]);
+            xMax = Math.max(xMax, x[i]);
+            yMin = Math.min(yMin, y[i]);
+            yMax = Math.max(yMax, y[i]);
+        }
+        long width = ((long) xMax - xMin) / cells + 1;
+        long height = ((long) yMax - yMin) / cells + 1;
+        int[] counts = new int[cells * cells];
+        for (int i = 0; i < x.length; i++)
+            counts[(int) ((y[i] - (long) yMin) / height) * cells +
+                    (int) ((x[i] - (long) xMin) / width)]++;
+        double squares = 0;
+        for (int count: counts)
+            squares += (double) count * count;
+        return x.length == 0 ? 0 : squares / x.length;
+    }
+
+    private static Point[] toPoints(int[] x, int[] y) {
+        Point[] points = new Point[x.length];
+        for (int i = 0; i < x.length; i++)
+            points[i] = new Point(x[i], y[i]);
+        return points;
+    }
+}
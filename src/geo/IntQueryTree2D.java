@@ -0,0 +1,747 @@
+package geo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/** An int-specialized version of QueryTree2D that keeps the primary tree and
+ * all the treaps hanging from it in flat arrays instead of separate objects.
+ * The primary tree is implicit: points are sorted by x and the node of the
+ * subtree built over positions [lo, hi) is the point at (lo + hi) / 2.
+ * A treap hanging from a node at depth d that covers [lo, hi) has exactly
+ * hi - lo nodes (each node holds one point as its heapMax), which are stored
+ * in preorder at slots (d - 1) * n + lo ... (d - 1) * n + hi - 1. Subtrees
+ * at the same depth cover disjoint ranges, so these slots never overlap.
+ * The root has no treap because the search never uses it. Since every
+ * sub-treap takes consecutive slots, the bottom levels of the treaps are
+ * blocks of coordinates, which searches scan instead of descending into.
+ * Points are deleted by marking them dead: searches skip dead points, and
+ * every treap node counts the dead points of its sub-treap. Once dead
+ * points make up a quarter of a subtree, its treaps are rebuilt so that the
+ * dead points sink to the bottom, where searches rarely reach them. Once
+ * they outnumber the live ones, the whole tree is rebuilt without them.
+ * With the EYTZINGER layout, the x coordinates of the nodes of the primary
+ * tree are also kept in breadth-first order, the children of the node at
+ * index i at 2i + 1 and 2i + 2, which the searches descend instead of the
+ * sorted points: the top levels of the tree then share a few cache lines,
+ * while consecutive nodes on a path through the sorted points lie far
+ * apart. The treaps are already stored depth-first, every sub-treap in
+ * consecutive slots.
+ * Deletions must not run concurrently with searches. */
+public class IntQueryTree2D implements RangeIndex<Point> {
+
+    // version of the layout of the arrays, stored in snapshots
+    private static final int LAYOUT_VERSION = 1;
+    // sub-treaps of at most this many points are scanned instead of searched
+    static final int BLOCK = 64;
+
+    private int n; // number of points, dead ones included
+    private int levels; // depth of the primary tree
+    private int[] xs, ys; // points sorted by x, i.e. the primary tree
+    // x of the nodes of the primary tree in breadth-first order, or null
+    // for the SORTED layout
+    private int[] eytzinger;
+    private int[] ids; // indices of these points in the input
+
+    // Treap nodes. heapX/heapY/heapId are coordinates and the input index of
+    // heapMax, medianY is the y coordinate of heapMedian, left/right are the
+    // slots of the sub-treaps (-1 if there is no such sub-treap)
+    private int[] heapX, heapY, heapId, medianY, left, right;
+
+    // Deleted points, all null until the first deletion
+    private boolean[] dead; // by input index
+    private int[] deadBelow; // number of dead points in each sub-treap
+    private int[] sunk; // dead points in the subtree of a node at its rebuild
+    private int[][] scratch; // byY, byYChildren and winners for rebuilds
+    private int deadCount; // number of dead points
+
+    /**
+     * Constructs the tree for a set of points given by their coordinates
+     * @param x x coordinates of the points
+     * @param y y coordinates of the points, y[i] corresponds to x[i]
+     */
+    public IntQueryTree2D(int[] x, int[] y) {
+        this(x, y, false);
+    }
+
+    public IntQueryTree2D(Point[] points) {
+        this(Arrays.stream(points).mapToInt(p -> p.x).toArray(),
+                Arrays.stream(points).mapToInt(p -> p.y).toArray());
+    }
+
+    /** Must run inside a ForkJoinPool if parallel */
+    private IntQueryTree2D(int[] x, int[] y, boolean parallel) {
+        this(x, y, null, parallel);
+    }
+
+    /** id[i] is the input index of point i, or i if id is null */
+    private IntQueryTree2D(int[] x, int[] y, int[] id, boolean parallel) {
+        if (x.length != y.length)
+            throw new IllegalArgumentException("Got " + x.length +
+                    " x coordinates but " + y.length + " y coordinates");
+        this.n = x.length;
+        // sorting by x, ties broken by the original index
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = ((long) x[i] << 32) | i;
+        sort(keys, parallel);
+        this.xs = new int[n];
+        this.ys = new int[n];
+        this.ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            int index = (int) keys[i];
+            xs[i] = x[index];
+            ys[i] = y[index];
+            ids[i] = id == null ? index : id[index];
+        }
+        this.levels = depth(n);
+        long slots = (long) levels * n;
+        if (slots > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many points: " + n);
+        this.heapX = new int[(int) slots];
+        this.heapY = new int[(int) slots];
+        this.heapId = new int[(int) slots];
+        this.medianY = new int[(int) slots];
+        this.left = new int[(int) slots];
+        this.right = new int[(int) slots];
+        // positions of the points sorted by y, ties broken by position
+        int[] byY = new int[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = ((long) ys[i] << 32) | i;
+        sort(keys, parallel);
+        for (int i = 0; i < n; i++)
+            byY[i] = (int) keys[i];
+        build(0, n, 0, false, byY, new int[n], new int[2 * n], parallel);
+    }
+
+    /** Constructs the tree from the arrays of a snapshot */
+    private IntQueryTree2D(int[][] arrays, Path path) throws IOException {
+        if (arrays.length != 9)
+            throw new IOException("Snapshot " + path + " has " +
+                    arrays.length + " arrays instead of 9");
+        this.xs = arrays[0];
+        this.ys = arrays[1];
+        this.ids = arrays[2];
+        this.heapX = arrays[3];
+        this.heapY = arrays[4];
+        this.heapId = arrays[5];
+        this.medianY = arrays[6];
+        this.left = arrays[7];
+        this.right = arrays[8];
+        this.n = xs.length;
+        this.levels = depth(n);
+        for (int i = 0; i < arrays.length; i++) {
+            if (arrays[i].length != (i < 3 ? n : levels * n))
+                throw new IOException("Snapshot " + path + " has arrays " +
+                        "of wrong sizes");
+        }
+    }
+
+    /** Save the built tree, so that open() can load it without rebuilding.
+     * Dead points are dropped first. */
+    public void save(Path path) throws IOException {
+        if (deadCount > 0)
+            compact();
+        Snapshot.write(path, LAYOUT_VERSION, xs, ys, ids, heapX, heapY,
+                heapId, medianY, left, right);
+    }
+
+    /** Load a tree saved with save(). The whole file is read into the
+     * arrays of the tree and checked against its checksum, so this takes
+     * O(n log n) time, though much less than building the tree; snapshots
+     * of other layout versions are rejected. */
+    public static IntQueryTree2D open(Path path) throws IOException {
+        return new IntQueryTree2D(Snapshot.read(path, LAYOUT_VERSION), path);
+    }
+
+    /**
+     * Constructs the tree using several threads. Subtrees and their treaps
+     * are built in parallel down to Tournament.PARALLEL_CUTOFF points.
+     * @param x           x coordinates of the points
+     * @param y           y coordinates of the points
+     * @param parallelism Number of threads to use
+     */
+    public static IntQueryTree2D buildParallel(int[] x, int[] y,
+                                               int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> new IntQueryTree2D(x, y, true)).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void sort(long[] keys, boolean parallel) {
+        if (parallel)
+            Arrays.parallelSort(keys);
+        else
+            Arrays.sort(keys);
+    }
+
+    /** Where the searches find the x coordinates of the nodes of the
+     * primary tree */
+    public enum Layout {
+        SORTED, // the points sorted by x. Takes no extra space.
+        EYTZINGER // breadth-first order. Takes up to 2n more ints.
+    }
+
+    /** Change the layout of the primary tree, SORTED at first. Must not run
+     * concurrently with searches. */
+    public void setLayout(Layout layout) {
+        if (layout == Layout.SORTED) {
+            eytzinger = null;
+        } else {
+            eytzinger = new int[(1 << (levels + 1)) - 1];
+            fillEytzinger(0, n, 0);
+        }
+    }
+
+    public Layout getLayout() {
+        return eytzinger == null ? Layout.SORTED : Layout.EYTZINGER;
+    }
+
+    /** Copy the x of the nodes of the subtree over [lo, hi), whose node is
+     * at an index of the breadth-first order, to that order */
+    private void fillEytzinger(int lo, int hi, int index) {
+        if (lo >= hi)
+            return;
+        int mid = (lo + hi) >>> 1;
+        eytzinger[index] = xs[mid];
+        fillEytzinger(lo, mid, 2 * index + 1);
+        fillEytzinger(mid + 1, hi, 2 * index + 2);
+    }
+
+    /** The x of the node of the primary tree at a position in the sorted
+     * points and an index in the breadth-first order */
+    private int nodeX(int position, int index) {
+        return eytzinger == null ? xs[position] : eytzinger[index];
+    }
+
+    /** Depth of the primary tree built over n points */
+    private static int depth(int n) {
+        int depth = 0;
+        while (n > 1) {
+            n /= 2; // the left subtree is never smaller than the right one
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Build the treaps for the subtree over [lo, hi) at a given depth
+     * @param byY         byY[lo...hi) are positions [lo...hi) sorted by y.
+     *                    Overwritten by the subtrees.
+     * @param byYChildren Receives the same for the subtrees
+     * @param winners     Scratch space for the tournament
+     * @param parallel    Whether to build large subtrees with fork-join
+     */
+    private void build(int lo, int hi, int depth, boolean isLeftSubtree,
+                       int[] byY, int[] byYChildren, int[] winners,
+                       boolean parallel) {
+        if (lo >= hi)
+            return;
+        parallel &= hi - lo > Tournament.PARALLEL_CUTOFF;
+        int mid = (lo + hi) >>> 1;
+        if (depth > 0) {
+            int slot = (depth - 1) * n + lo;
+            buildTreap(lo, hi, slot, isLeftSubtree, byY, winners, parallel);
+            if (sunk != null)
+                sunk[mid] = deadBelow[slot];
+        }
+        int toLeft = lo, toRight = mid + 1;
+        for (int i = lo; i < hi; i++) {
+            if (byY[i] < mid)
+                byYChildren[toLeft++] = byY[i];
+            else if (byY[i] > mid)
+                byYChildren[toRight++] = byY[i];
+        }
+        if (parallel) {
+            ForkJoinTask.invokeAll(
+                    ForkJoinTask.adapt(() -> build(lo, mid, depth + 1, true,
+                            byYChildren, byY, winners, true)),
+                    ForkJoinTask.adapt(() -> build(mid + 1, hi, depth + 1,
+                            false, byYChildren, byY, winners, true)));
+        } else {
+            build(lo, mid, depth + 1, true, byYChildren, byY, winners,
+                    false);
+            build(mid + 1, hi, depth + 1, false, byYChildren, byY, winners,
+                    false);
+        }
+    }
+
+    /** Build the treap over points [lo, hi) starting at a given slot. Treaps
+     * of left subtrees store the point with the largest x at the top,
+     * treaps of right subtrees - the point with the smallest x */
+    private void buildTreap(int lo, int hi, int slot, boolean maxFirst,
+                            int[] byY, int[] winners, boolean parallel) {
+        if (maxFirst)
+            Tournament.play(winners, 2 * lo, lo, hi, (i, j) -> Integer.compare(
+                    heapKey(byY[i], true), heapKey(byY[j], true)), parallel);
+        else
+            Tournament.play(winners, 2 * lo, lo, hi, (i, j) -> Integer.compare(
+                    heapKey(byY[j], false), heapKey(byY[i], false)), parallel);
+        fillTreap(byY, winners, 2 * lo, lo, hi, slot, maxFirst);
+    }
+
+    /** The x coordinate of a point as a heapMax. Dead points lose to all
+     * live ones, so that they end up at the bottom of the treap. */
+    private int heapKey(int position, boolean maxFirst) {
+        if (isLive(ids[position]))
+            return xs[position];
+        return maxFirst ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+    }
+
+    private boolean isLive(int id) {
+        return dead == null || !dead[id];
+    }
+
+    /** Copy the node of the tournament at a given slot and its subtree to
+     * the treap arrays in preorder. Return the first slot not taken. */
+    private int fillTreap(int[] byY, int[] winners, int from, int lo, int hi,
+                          int slot, boolean maxFirst) {
+        int top = byY[winners[from]];
+        heapX[slot] = heapKey(top, maxFirst);
+        heapY[slot] = ys[top];
+        heapId[slot] = ids[top];
+        left[slot] = -1;
+        right[slot] = -1;
+        if (deadBelow != null)
+            deadBelow[slot] = isLive(ids[top]) ? 0 : 1;
+        if (hi - lo == 1)
+            return slot + 1;
+        int mid = (lo + hi) >>> 1;
+        int leftFrom = from + 1;
+        int rightFrom = Tournament.rightSlot(from, lo, hi);
+        medianY[slot] = ys[byY[mid]];
+        int next = slot + 1;
+        if (winners[leftFrom] != -1) {
+            left[slot] = next;
+            next = fillTreap(byY, winners, leftFrom, lo, mid, next,
+                    maxFirst);
+        }
+        if (winners[rightFrom] != -1) {
+            right[slot] = next;
+            next = fillTreap(byY, winners, rightFrom, mid, hi, next,
+                    maxFirst);
+        }
+        if (deadBelow != null)
+            deadBelow[slot] += deadIn(left[slot]) + deadIn(right[slot]);
+        return next;
+    }
+
+    @Override
+    public Set<Point> search(Point min, Point max) {
+        Set<Point> result = new HashSet<>();
+        search(min, max, result::add);
+        return result;
+    }
+
+    /** Pass every point in the query rectangle to the sink. Unlike the
+     * search returning a set, equal points are passed as many times as they
+     * were given to the constructor */
+    @Override
+    public void search(Point min, Point max, Consumer<? super Point> sink) {
+        search(min.x, min.y, max.x, max.y, Integer.MAX_VALUE,
+                (id, x, y) -> sink.accept(new Point(x, y)));
+    }
+
+    /** Pass at most limit points of the query rectangle to the sink and
+     * return how many were passed. The search stops as soon as it has found
+     * limit points, so it takes O(log^2 n + limit) time no matter how many
+     * points fall within the rectangle. */
+    @Override
+    public int search(Point min, Point max, int limit,
+                      Consumer<? super Point> sink) {
+        return search(min.x, min.y, max.x, max.y, limit,
+                (id, x, y) -> sink.accept(new Point(x, y)));
+    }
+
+    /** Pass the index of every point in the query rectangle to the sink.
+     * Indices refer to the arrays given to the constructor. Nothing is
+     * allocated during such a search. */
+    public void search(int xMin, int yMin, int xMax, int yMax,
+                       IntConsumer sink) {
+        search(xMin, yMin, xMax, yMax, Integer.MAX_VALUE,
+                (id, x, y) -> sink.accept(id));
+    }
+
+    /** Pass the indices of at most limit points in the query rectangle to
+     * the sink and return how many were passed */
+    public int search(int xMin, int yMin, int xMax, int yMax, int limit,
+                      IntConsumer sink) {
+        return search(xMin, yMin, xMax, yMax, limit,
+                (id, x, y) -> sink.accept(id));
+    }
+
+    private int search(int xMin, int yMin, int xMax, int yMax, int limit,
+                       Match sink) {
+        int lo = 0, hi = n, depth = 0, found = 0;
+        int index = 0; // of the node in the breadth-first order
+        if (limit <= 0)
+            return 0;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int x = nodeX(mid, index);
+            if (x > xMax) { // results are to the left
+                hi = mid;
+                index = 2 * index + 1;
+            } else if (xMin > x) { // results are to the right
+                lo = mid + 1;
+                index = 2 * index + 2;
+            } else {
+                // the node falls in the x-range of the query, so the treaps
+                // of its children are used to calculate the result
+                if (ys[mid] <= yMax && ys[mid] >= yMin &&
+                        isLive(ids[mid])) {
+                    sink.accept(ids[mid], xs[mid], ys[mid]);
+                    found++;
+                }
+                int base = depth * n; // treaps of the children
+                if (mid + 1 < hi)
+                    found += searchRightTreap(base + mid + 1, hi - mid - 1,
+                            xMax, yMin, yMax, limit - found, sink);
+                if (lo < mid)
+                    found += searchLeftTreap(base + lo, mid - lo, xMin, yMin,
+                            yMax, limit - found, sink);
+                return found;
+            }
+            depth++;
+        }
+        return found;
+    }
+
+    /** Search the treap of a left subtree, i.e. heapMax has the largest x,
+     * for at most limit points and return how many were found. The treap
+     * has size points, and a sub-treap takes the slots up to the next
+     * sub-treap in preorder. */
+    private int searchLeftTreap(int slot, int size, int xMin, int yMin,
+                                int yMax, int limit, Match sink) {
+        if (limit <= 0 || xMin > heapX[slot])
+            return 0;
+        if (size <= BLOCK)
+            return scan(slot, size, xMin, Integer.MAX_VALUE, yMin, yMax,
+                    limit, sink);
+        int found = 0;
+        if (heapY[slot] <= yMax && heapY[slot] >= yMin &&
+                isLive(heapId[slot])) {
+            sink.accept(heapId[slot], heapX[slot], heapY[slot]);
+            found++;
+        }
+        int end = slot + size;
+        if (left[slot] != -1 && medianY[slot] >= yMin)
+            found += searchLeftTreap(left[slot], (right[slot] != -1 ?
+                    right[slot] : end) - left[slot], xMin, yMin, yMax,
+                    limit - found, sink);
+        if (right[slot] != -1 && yMax >= medianY[slot])
+            found += searchLeftTreap(right[slot], end - right[slot], xMin,
+                    yMin, yMax, limit - found, sink);
+        return found;
+    }
+
+    /** Search the treap of a right subtree, i.e. heapMax has the smallest
+     * x, for at most limit points and return how many were found */
+    private int searchRightTreap(int slot, int size, int xMax, int yMin,
+                                 int yMax, int limit, Match sink) {
+        if (limit <= 0 || heapX[slot] > xMax)
+            return 0;
+        if (size <= BLOCK)
+            return scan(slot, size, Integer.MIN_VALUE, xMax, yMin, yMax,
+                    limit, sink);
+        int found = 0;
+        if (heapY[slot] <= yMax && heapY[slot] >= yMin &&
+                isLive(heapId[slot])) {
+            sink.accept(heapId[slot], heapX[slot], heapY[slot]);
+            found++;
+        }
+        int end = slot + size;
+        if (left[slot] != -1 && medianY[slot] >= yMin)
+            found += searchRightTreap(left[slot], (right[slot] != -1 ?
+                    right[slot] : end) - left[slot], xMax, yMin, yMax,
+                    limit - found, sink);
+        if (right[slot] != -1 && yMax >= medianY[slot])
+            found += searchRightTreap(right[slot], end - right[slot], xMax,
+                    yMin, yMax, limit - found, sink);
+        return found;
+    }
+
+    /** Check every point of a small sub-treap, which lies in the consecutive
+     * slots [slot, slot + size), instead of descending into it. The
+     * conditions are combined without branching, so the only branch taken
+     * per point is the one for points within the rectangle. */
+    private int scan(int slot, int size, int xMin, int xMax, int yMin,
+                     int yMax, int limit, Match sink) {
+        int found = 0;
+        for (int end = slot + size; slot < end && found < limit; slot++) {
+            int x = heapX[slot], y = heapY[slot];
+            if ((x >= xMin) & (x <= xMax) & (y >= yMin) & (y <= yMax) &&
+                    isLive(heapId[slot])) {
+                sink.accept(heapId[slot], x, y);
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int count(Point min, Point max) {
+        return count(min.x, min.y, max.x, max.y);
+    }
+
+    /** Count the points in the query rectangle in O(log^2 n) time without
+     * enumerating them. Below the node where the search splits, each node
+     * on the path towards xMin (xMax) whose right (left) subtree lies within
+     * the x-range of the query counts that subtree with its treap. */
+    public int count(int xMin, int yMin, int xMax, int yMax) {
+        int lo = 0, hi = n, depth = 0, index = 0;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int x = nodeX(mid, index);
+            if (x > xMax) {
+                hi = mid;
+                index = 2 * index + 1;
+            } else if (xMin > x) {
+                lo = mid + 1;
+                index = 2 * index + 2;
+            } else {
+                int result = countNode(mid, yMin, yMax);
+                // the path towards xMin
+                int from = lo, to = mid, at = 2 * index + 1;
+                for (int d = depth + 1; from < to; d++) {
+                    int node = (from + to) >>> 1;
+                    if (xMin > nodeX(node, at)) {
+                        from = node + 1;
+                        at = 2 * at + 2;
+                    } else {
+                        result += countNode(node, yMin, yMax) + countTreap(
+                                d * n + node + 1, to - node - 1, yMin, yMax);
+                        to = node;
+                        at = 2 * at + 1;
+                    }
+                }
+                // the path towards xMax
+                from = mid + 1;
+                to = hi;
+                at = 2 * index + 2;
+                for (int d = depth + 1; from < to; d++) {
+                    int node = (from + to) >>> 1;
+                    if (nodeX(node, at) > xMax) {
+                        to = node;
+                        at = 2 * at + 1;
+                    } else {
+                        result += countNode(node, yMin, yMax) + countTreap(
+                                d * n + from, node - from, yMin, yMax);
+                        from = node + 1;
+                        at = 2 * at + 2;
+                    }
+                }
+                return result;
+            }
+            depth++;
+        }
+        return 0;
+    }
+
+    /** 1 if the node of the primary tree is live and within [yMin, yMax] */
+    private int countNode(int position, int yMin, int yMax) {
+        return ys[position] <= yMax && ys[position] >= yMin &&
+                isLive(ids[position]) ? 1 : 0;
+    }
+
+    /** Count the points of the treap of a given size within [yMin, yMax] */
+    private int countTreap(int slot, int size, int yMin, int yMax) {
+        if (size == 0)
+            return 0;
+        return countAtMost(slot, size, yMax) -
+                countAtMost(slot, size, yMin - 1L);
+    }
+
+    /** Count the live points of the treap with y no larger than a bound. The
+     * size of a sub-treap is the distance to the next sub-treap in
+     * preorder. */
+    private int countAtMost(int slot, int size, long bound) {
+        int result = 0;
+        while (true) {
+            if (heapY[slot] <= bound && isLive(heapId[slot]))
+                result++;
+            int leftSlot = left[slot], rightSlot = right[slot];
+            int end = slot + size;
+            int leftEnd = rightSlot != -1 ? rightSlot : end;
+            int next, nextEnd;
+            if (medianY[slot] <= bound) { // the left sub-treap is counted
+                if (leftSlot != -1)
+                    result += leftEnd - leftSlot - deadIn(leftSlot);
+                next = rightSlot;
+                nextEnd = end;
+            } else { // the right sub-treap is above the bound
+                next = leftSlot;
+                nextEnd = leftEnd;
+            }
+            if (next == -1)
+                return result;
+            size = nextEnd - next;
+            slot = next;
+        }
+    }
+
+    /** Number of dead points in the sub-treap at a slot, which can be -1 */
+    private int deadIn(int slot) {
+        return slot == -1 || deadBelow == null ? 0 : deadBelow[slot];
+    }
+
+    /** Delete a point with given coordinates in O(log^2 n) amortized time.
+     * Return false if there is no such point. */
+    public boolean delete(int x, int y) {
+        int from = 0, to = n; // the first position with xs >= x
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (xs[middle] < x)
+                from = middle + 1;
+            else
+                to = middle;
+        }
+        for (int position = from; position < n && xs[position] == x;
+             position++) {
+            if (ys[position] == y && isLive(ids[position])) {
+                kill(position);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean delete(Point point) {
+        return delete(point.x, point.y);
+    }
+
+    /** Mark the point at a position dead and rebuild what has to be */
+    private void kill(int position) {
+        if (dead == null) {
+            int maxId = -1;
+            for (int id: ids)
+                maxId = Math.max(maxId, id);
+            dead = new boolean[maxId + 1];
+            deadBelow = new int[heapX.length];
+            sunk = new int[n];
+        }
+        dead[ids[position]] = true;
+        deadCount++;
+        if (2 * deadCount > n) {
+            compact();
+            return;
+        }
+        // counting the point in the treaps of all the subtrees holding it
+        int lo = 0, hi = n, depth = 0;
+        boolean isLeftSubtree = false;
+        int rebuildLo = -1, rebuildHi = -1, rebuildDepth = 0;
+        boolean rebuildLeft = false;
+        while (true) {
+            int mid = (lo + hi) >>> 1;
+            if (depth > 0) {
+                int slot = (depth - 1) * n + lo;
+                markDead(slot, position, isLeftSubtree);
+                // fresh dead points among the ones not sunk yet
+                int fresh = deadBelow[slot] - sunk[mid];
+                if (rebuildLo == -1 && 4 * fresh > hi - lo - sunk[mid]) {
+                    rebuildLo = lo;
+                    rebuildHi = hi;
+                    rebuildDepth = depth;
+                    rebuildLeft = isLeftSubtree;
+                }
+            }
+            if (position == mid)
+                break;
+            isLeftSubtree = position < mid;
+            if (isLeftSubtree)
+                hi = mid;
+            else
+                lo = mid + 1;
+            depth++;
+        }
+        if (rebuildLo != -1)
+            rebuild(rebuildLo, rebuildHi, rebuildDepth, rebuildLeft);
+    }
+
+    /** Add one to the dead counters on the path from a slot to the node
+     * holding the point at a position. Return false if it is not there. */
+    private boolean markDead(int slot, int position, boolean maxFirst) {
+        if (heapId[slot] == ids[position]) {
+            deadBelow[slot]++;
+            return true;
+        }
+        // a point never sits below one it beats
+        if (maxFirst ? heapX[slot] < xs[position] :
+                heapX[slot] > xs[position])
+            return false;
+        int y = ys[position];
+        if ((left[slot] != -1 && y <= medianY[slot] &&
+                markDead(left[slot], position, maxFirst)) ||
+                (right[slot] != -1 && y >= medianY[slot] &&
+                        markDead(right[slot], position, maxFirst))) {
+            deadBelow[slot]++;
+            return true;
+        }
+        return false;
+    }
+
+    /** Rebuild the treaps of the subtree over [lo, hi) at a given depth */
+    private void rebuild(int lo, int hi, int depth, boolean isLeftSubtree) {
+        if (scratch == null)
+            scratch = new int[][] {new int[n], new int[n], new int[2 * n]};
+        long[] keys = new long[hi - lo];
+        for (int i = lo; i < hi; i++)
+            keys[i - lo] = ((long) ys[i] << 32) | i;
+        Arrays.sort(keys);
+        for (int i = lo; i < hi; i++)
+            scratch[0][i] = (int) keys[i - lo];
+        build(lo, hi, depth, isLeftSubtree, scratch[0], scratch[1],
+                scratch[2], false);
+    }
+
+    /** Rebuild the whole tree from the live points */
+    private void compact() {
+        int live = n - deadCount;
+        int[] x = new int[live], y = new int[live], id = new int[live];
+        for (int i = 0, next = 0; i < n; i++) {
+            if (isLive(ids[i])) {
+                x[next] = xs[i];
+                y[next] = ys[i];
+                id[next] = ids[i];
+                next++;
+            }
+        }
+        IntQueryTree2D tree = new IntQueryTree2D(x, y, id, false);
+        n = tree.n;
+        levels = tree.levels;
+        xs = tree.xs;
+        ys = tree.ys;
+        ids = tree.ids;
+        heapX = tree.heapX;
+        heapY = tree.heapY;
+        heapId = tree.heapId;
+        medianY = tree.medianY;
+        left = tree.left;
+        right = tree.right;
+        if (eytzinger != null)
+            setLayout(Layout.EYTZINGER);
+        dead = null;
+        deadBelow = null;
+        sunk = null;
+        scratch = null;
+        deadCount = 0;
+    }
+
+    /** Number of live points */
+    @Override
+    public int size() {
+        return n - deadCount;
+    }
+
+    /** Receives a point found by a search */
+    private interface Match {
+        void accept(int id, int x, int y);
+    }
+}
@@ -0,0 +1,145 @@
+package geo;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/** A static kd-tree. It takes O(n) space against the O(n log n) of
+ * QueryTree2D, is built in O(n log^2 n) time and answers a query in
+ * O(sqrt(n) + k) time. The tree is implicit like the one of IntQueryTree2D:
+ * the node of the subtree over positions [lo, hi) is the point at
+ * (lo + hi) / 2, which splits the subtree by x at even depths and by y at
+ * odd ones. Every node also knows the bounding box of its subtree, so that
+ * subtrees within the query rectangle are reported (or counted) without
+ * looking at their points, which makes queries returning many points as
+ * fast as a scan, and subtrees outside of it are skipped right away. */
+public class KdTree<T> implements RangeIndex<T> {
+
+    private final Comparator<T> xComparator, yComparator;
+    private final T[] points; // in the order of the implicit tree
+    // the points with the smallest and largest x and y in the subtree of
+    // each node, i.e. its bounding box
+    private final T[] left, right, bottom, top;
+
+    /**
+     * @param elements    The points. The array is not modified.
+     * @param xComparator To compare by x
+     * @param yComparator To compare by y
+     */
+    public KdTree(T[] elements, Comparator<T> xComparator,
+                  Comparator<T> yComparator) {
+        this.xComparator = xComparator;
+        this.yComparator = yComparator;
+        this.points = elements.clone();
+        this.left = elements.clone();
+        this.right = elements.clone();
+        this.bottom = elements.clone();
+        this.top = elements.clone();
+        build(0, points.length, true);
+    }
+
+    private void build(int lo, int hi, boolean byX) {
+        if (lo >= hi)
+            return;
+        Arrays.sort(points, lo, hi, byX ? xComparator : yComparator);
+        int mid = (lo + hi) >>> 1;
+        build(lo, mid, !byX);
+        build(mid + 1, hi, !byX);
+        T point = points[mid];
+        left[mid] = right[mid] = bottom[mid] = top[mid] = point;
+        if (lo < mid)
+            widen(mid, (lo + mid) >>> 1);
+        if (mid + 1 < hi)
+            widen(mid, (mid + 1 + hi) >>> 1);
+    }
+
+    /** Extend the bounding box of a node by the one of its child */
+    private void widen(int node, int child) {
+        if (xComparator.compare(left[child], left[node]) < 0)
+            left[node] = left[child];
+        if (xComparator.compare(right[child], right[node]) > 0)
+            right[node] = right[child];
+        if (yComparator.compare(bottom[child], bottom[node]) < 0)
+            bottom[node] = bottom[child];
+        if (yComparator.compare(top[child], top[node]) > 0)
+            top[node] = top[child];
+    }
+
+    @Override
+    public void search(T min, T max, Consumer<? super T> sink) {
+        search(0, points.length, min, max, Integer.MAX_VALUE, sink);
+    }
+
+    @Override
+    public int search(T min, T max, int limit, Consumer<? super T> sink) {
+        return search(0, points.length, min, max, limit, sink);
+    }
+
+    /** Search the subtree over [lo, hi) for at most limit points and return
+     * how many were found */
+    private int search(int lo, int hi, T min, T max, int limit,
+                       Consumer<? super T> sink) {
+        if (lo >= hi || limit <= 0)
+            return 0;
+        int mid = (lo + hi) >>> 1;
+        if (disjoint(mid, min, max))
+            return 0;
+        if (inside(mid, min, max)) {
+            int end = (int) Math.min(hi, (long) lo + limit);
+            for (int i = lo; i < end; i++)
+                sink.accept(points[i]);
+            return end - lo;
+        }
+        int found = 0;
+        if (within(points[mid], min, max)) {
+            sink.accept(points[mid]);
+            found++;
+        }
+        found += search(lo, mid, min, max, limit - found, sink);
+        return found + search(mid + 1, hi, min, max, limit - found, sink);
+    }
+
+    @Override
+    public int count(T min, T max) {
+        return count(0, points.length, min, max);
+    }
+
+    private int count(int lo, int hi, T min, T max) {
+        if (lo >= hi)
+            return 0;
+        int mid = (lo + hi) >>> 1;
+        if (disjoint(mid, min, max))
+            return 0;
+        if (inside(mid, min, max))
+            return hi - lo;
+        return (within(points[mid], min, max) ? 1 : 0) +
+                count(lo, mid, min, max) + count(mid + 1, hi, min, max);
+    }
+
+    /** Whether the bounding box of a node misses the query rectangle */
+    private boolean disjoint(int node, T min, T max) {
+        return xComparator.compare(right[node], min) < 0 ||
+                xComparator.compare(left[node], max) > 0 ||
+                yComparator.compare(top[node], min) < 0 ||
+                yComparator.compare(bottom[node], max) > 0;
+    }
+
+    /** Whether the bounding box of a node lies within the query rectangle */
+    private boolean inside(int node, T min, T max) {
+        return xComparator.compare(min, left[node]) <= 0 &&
+                xComparator.compare(right[node], max) <= 0 &&
+                yComparator.compare(min, bottom[node]) <= 0 &&
+                yComparator.compare(top[node], max) <= 0;
+    }
+
+    private boolean within(T point, T min, T max) {
+        return xComparator.compare(min, point) <= 0 &&
+                xComparator.compare(point, max) <= 0 &&
+                yComparator.compare(min, point) <= 0 &&
+                yComparator.compare(point, max) <= 0;
+    }
+
+    @Override
+    public int size() {
+        return points.length;
+    }
+}
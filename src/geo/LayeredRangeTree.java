@@ -0,0 +1,179 @@
+package geo;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/** A static layered range tree, which answers a query in O(log n + k) time
+ * and counts in O(log n) time, against the O(log^2 n) of the treaps of
+ * QueryTree2D, at the price of O(n log n) space.
+ * The primary tree is implicit and balanced by x: the points are sorted by
+ * x, the subtree over positions [lo, hi) has the children [lo, mid) and
+ * [mid, hi) with mid = (lo + hi) / 2, and subtrees of single points are the
+ * leaves. Every subtree keeps its points sorted by y, like a step of merge
+ * sort; the lists of all subtrees at the same depth cover disjoint ranges
+ * and share one array per depth. This is fractional cascading: next to its
+ * list, a subtree stores for every position in it how many of the points
+ * before that position came from its left child. A y-range of a list is
+ * thus mapped to the same y-range in the lists of the children in O(1)
+ * time, so only the list of the root is searched, by binary search, and
+ * every subtree within the x-range of the query reports its y-range as is. */
+public class LayeredRangeTree<T> implements RangeIndex<T> {
+
+    private final Comparator<T> xComparator, yComparator;
+    private final T[] byX; // the points sorted by x, i.e. the leaves
+    // levels[d][lo...hi) are the points of the subtree over [lo, hi) at
+    // depth d sorted by y
+    private final T[][] levels;
+    // fromLeft[d][i] is how many of levels[d][lo...i) are in the left child
+    // of the subtree over [lo, hi) at depth d
+    private final int[][] fromLeft;
+
+    /**
+     * @param elements    The points. The array is not modified.
+     * @param xComparator To compare by x
+     * @param yComparator To compare by y
+     */
+    @SuppressWarnings("unchecked")
+    public LayeredRangeTree(T[] elements, Comparator<T> xComparator,
+                            Comparator<T> yComparator) {
+        this.xComparator = xComparator;
+        this.yComparator = yComparator;
+        this.byX = elements.clone();
+        Arrays.sort(byX, xComparator);
+        int depth = 1;
+        while (1 << (depth - 1) < byX.length)
+            depth++;
+        this.levels = (T[][]) new Object[depth][];
+        this.fromLeft = new int[depth - 1][];
+        for (int d = 0; d < depth; d++) {
+            levels[d] = byX.clone();
+            if (d < depth - 1)
+                fromLeft[d] = new int[byX.length];
+        }
+        if (byX.length > 0)
+            build(0, byX.length, 0);
+    }
+
+    /** Merge the lists of the children of the subtree over [lo, hi) */
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo == 1)
+            return; // every level starts out sorted by x
+        int mid = (lo + hi) >>> 1;
+        build(lo, mid, depth + 1);
+        build(mid, hi, depth + 1);
+        T[] from = levels[depth + 1], to = levels[depth];
+        int[] left = fromLeft[depth];
+        int i = lo, j = mid;
+        for (int k = lo; k < hi; k++) {
+            left[k] = i - lo;
+            if (j == hi || (i < mid &&
+                    yComparator.compare(from[i], from[j]) <= 0))
+                to[k] = from[i++];
+            else
+                to[k] = from[j++];
+        }
+    }
+
+    /** Map a position in the list of the subtree over [lo, hi) at some
+     * depth to the one in the list of its left child. The position in the
+     * list of the right child is mid + pos minus the result. */
+    private int toLeft(int depth, int lo, int mid, int hi, int pos) {
+        return lo + (pos == hi ? mid - lo : fromLeft[depth][pos]);
+    }
+
+    @Override
+    public void search(T min, T max, Consumer<? super T> sink) {
+        search(min, max, Integer.MAX_VALUE, sink);
+    }
+
+    @Override
+    public int search(T min, T max, int limit, Consumer<? super T> sink) {
+        if (byX.length == 0)
+            return 0;
+        return search(0, byX.length, 0, rank(min, false),
+                rank(max, true), min, max, limit, sink);
+    }
+
+    /**
+     * Search the subtree over [lo, hi) for at most limit points
+     * @param from  First position in its list with y of at least min
+     * @param to    First position in its list with y above max
+     * @return The number of points found
+     */
+    private int search(int lo, int hi, int depth, int from, int to, T min,
+                       T max, int limit, Consumer<? super T> sink) {
+        if (from >= to || limit <= 0 || disjoint(lo, hi, min, max))
+            return 0;
+        if (inside(lo, hi, min, max)) {
+            int end = (int) Math.min(to, (long) from + limit);
+            for (int i = from; i < end; i++)
+                sink.accept(levels[depth][i]);
+            return end - from;
+        }
+        // not a leaf, since a single point is either inside or disjoint
+        int mid = (lo + hi) >>> 1;
+        int leftFrom = toLeft(depth, lo, mid, hi, from);
+        int leftTo = toLeft(depth, lo, mid, hi, to);
+        int found = search(lo, mid, depth + 1, leftFrom, leftTo, min, max,
+                limit, sink);
+        return found + search(mid, hi, depth + 1, mid + from - leftFrom,
+                mid + to - leftTo, min, max, limit - found, sink);
+    }
+
+    @Override
+    public int count(T min, T max) {
+        if (byX.length == 0)
+            return 0;
+        return count(0, byX.length, 0, rank(min, false),
+                rank(max, true), min, max);
+    }
+
+    private int count(int lo, int hi, int depth, int from, int to, T min,
+                      T max) {
+        if (from >= to || disjoint(lo, hi, min, max))
+            return 0;
+        if (inside(lo, hi, min, max))
+            return to - from;
+        int mid = (lo + hi) >>> 1;
+        int leftFrom = toLeft(depth, lo, mid, hi, from);
+        int leftTo = toLeft(depth, lo, mid, hi, to);
+        return count(lo, mid, depth + 1, leftFrom, leftTo, min, max) +
+                count(mid, hi, depth + 1, mid + from - leftFrom,
+                        mid + to - leftTo, min, max);
+    }
+
+    /** The number of points with y below the one of bound, or at most it if
+     * orEqual, i.e. a position in the list of the root */
+    private int rank(T bound, boolean orEqual) {
+        T[] root = levels[0];
+        int lo = 0, hi = root.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int order = yComparator.compare(root[mid], bound);
+            if (order < 0 || (orEqual && order == 0))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** Whether the points of the subtree over [lo, hi) all lie outside the
+     * x-range of the query */
+    private boolean disjoint(int lo, int hi, T min, T max) {
+        return xComparator.compare(byX[hi - 1], min) < 0 ||
+                xComparator.compare(byX[lo], max) > 0;
+    }
+
+    /** Whether the points of the subtree over [lo, hi) all lie within the
+     * x-range of the query */
+    private boolean inside(int lo, int hi, T min, T max) {
+        return xComparator.compare(min, byX[lo]) <= 0 &&
+                xComparator.compare(byX[hi - 1], max) <= 0;
+    }
+
+    @Override
+    public int size() {
+        return byX.length;
+    }
+}
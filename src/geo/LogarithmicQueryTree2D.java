@@ -0,0 +1,235 @@
+package geo;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/** A set of points that grows by insertions, built from static trees with
+ * the logarithmic method of Bentley and Saxe. New points go to a small
+ * buffer that is searched point by point. A full buffer is sealed and merged
+ * in the background into a series of QueryTree2D built from scratch, where
+ * level i holds either nothing or BUFFER_SIZE * 2^i points: like in binary
+ * addition, the sealed buffer and the full levels below the first empty one
+ * are merged into a single tree for that level. Every point takes part in
+ * O(log n) builds, so an insertion costs O(log^2 n) amortized time, and a
+ * search asks O(log n) trees, the sealed buffers and the buffer.
+ * Searches never block: they run on an immutable state of all the parts,
+ * which insertions and merges replace. */
+public class LogarithmicQueryTree2D<T> implements AutoCloseable {
+
+    static final int BUFFER_SIZE = 1 << 10; // points searched one by one
+    // insertions wait for the merges once this many buffers are sealed
+    static final int MAX_SEALED = 4;
+
+    private final Comparator<T> mainComparator, treapComparator;
+    private final ExecutorService merger; // builds the trees, one at a time
+    private volatile State<T> state; // guarded by this for writing
+    // what a merge threw, after which no more points are merged. Guarded
+    // by this.
+    private Throwable failure;
+
+    /**
+     * @param mainComparator  To compare by x (used to construct the trees)
+     * @param treapComparator To compare by y (passed to treap constructor)
+     */
+    public LogarithmicQueryTree2D(Comparator<T> mainComparator,
+                                  Comparator<T> treapComparator) {
+        this.mainComparator = mainComparator;
+        this.treapComparator = treapComparator;
+        this.merger = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "tree merger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.state = new State<>(new ArrayList<>(), new ArrayList<>(),
+                new Buffer<>());
+    }
+
+    /** Add a point. Waits if the merges fall too far behind.
+     * @throws IllegalStateException If a merge failed before */
+    public synchronized void insert(T point) {
+        checkMerges();
+        while (state.sealed.size() >= MAX_SEALED) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting " +
+                        "for a merge", e);
+            }
+            checkMerges();
+        }
+        Buffer<T> buffer = state.buffer;
+        buffer.points[buffer.size] = point;
+        buffer.size++; // publishes the point to the searches
+        if (buffer.size < BUFFER_SIZE)
+            return;
+        List<Buffer<T>> sealed = new ArrayList<>(state.sealed);
+        sealed.add(buffer);
+        state = new State<>(state.levels, sealed, new Buffer<>());
+        merger.execute(this::merge);
+    }
+
+    /** Fail if a merge failed, since its buffer would stay sealed and the
+     * insertions would wait for it forever */
+    private void checkMerges() {
+        if (failure != null)
+            throw new IllegalStateException("Merging the inserted points " +
+                    "failed", failure);
+    }
+
+    /** Merge the oldest sealed buffer into the levels. If that fails, the
+     * failure is recorded for insert and no more merges are done. */
+    private void merge() {
+        synchronized (this) {
+            if (failure != null)
+                return;
+        }
+        try {
+            mergeOldest();
+        } catch (Throwable e) {
+            synchronized (this) {
+                failure = e;
+                notifyAll(); // wakes up the insertions waiting for it
+            }
+        }
+    }
+
+    private void mergeOldest() {
+        State<T> start = state; // only merges change levels and drop sealed
+        List<T> points = new ArrayList<>();
+        Buffer<T> buffer = start.sealed.get(0);
+        for (int i = 0; i < BUFFER_SIZE; i++)
+            points.add(buffer.get(i));
+        List<QueryTree2D<T>> levels = new ArrayList<>(start.levels);
+        int level = 0;
+        while (level < levels.size() && levels.get(level) != null) {
+            points.addAll(levels.get(level).getTreap().points());
+            levels.set(level, null);
+            level++;
+        }
+        QueryTree2D<T> tree = build(points);
+        if (level == levels.size())
+            levels.add(tree);
+        else
+            levels.set(level, tree);
+        synchronized (this) {
+            List<Buffer<T>> sealed = new ArrayList<>(state.sealed);
+            sealed.remove(0);
+            state = new State<>(levels, sealed, state.buffer);
+            notifyAll();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private QueryTree2D<T> build(List<T> points) {
+        return new QueryTree2D<>((T[]) points.toArray(), mainComparator,
+                treapComparator);
+    }
+
+    public Set<T> search(T min, T max) {
+        Set<T> result = new HashSet<>();
+        search(min, max, result::add);
+        return result;
+    }
+
+    /** Pass every point in the query rectangle to the sink */
+    public void search(T min, T max, Consumer<? super T> sink) {
+        State<T> current = state;
+        for (QueryTree2D<T> tree: current.levels)
+            if (tree != null)
+                tree.search(min, max, sink);
+        for (Buffer<T> buffer: current.sealed)
+            scan(buffer, min, max, sink);
+        scan(current.buffer, min, max, sink);
+    }
+
+    /** Pass the points of a buffer in the query rectangle to the sink */
+    private void scan(Buffer<T> buffer, T min, T max,
+                      Consumer<? super T> sink) {
+        for (int i = 0, end = buffer.size; i < end; i++) {
+            T point = buffer.get(i);
+            if (mainComparator.compare(min, point) <= 0 &&
+                    mainComparator.compare(point, max) <= 0 &&
+                    treapComparator.compare(min, point) <= 0 &&
+                    treapComparator.compare(point, max) <= 0)
+                sink.accept(point);
+        }
+    }
+
+    /** Count the points in the query rectangle */
+    public int count(T min, T max) {
+        State<T> current = state;
+        int result = 0;
+        for (QueryTree2D<T> tree: current.levels)
+            if (tree != null)
+                result += tree.count(min, max);
+        int[] found = new int[1];
+        Consumer<T> counter = point -> found[0]++;
+        for (Buffer<T> buffer: current.sealed)
+            scan(buffer, min, max, counter);
+        scan(current.buffer, min, max, counter);
+        return result + found[0];
+    }
+
+    /** Number of points inserted so far */
+    public int size() {
+        State<T> current = state;
+        int result = current.buffer.size;
+        for (QueryTree2D<T> tree: current.levels)
+            if (tree != null)
+                result += tree.size();
+        return result + BUFFER_SIZE * current.sealed.size();
+    }
+
+    /** Wait until all sealed buffers are merged
+     * @throws IllegalStateException If a merge failed */
+    public synchronized void awaitMerges() throws InterruptedException {
+        checkMerges();
+        while (!state.sealed.isEmpty()) {
+            wait();
+            checkMerges();
+        }
+    }
+
+    /** Finish the pending merges and stop the merging thread. Points can no
+     * longer be inserted afterwards. If interrupted, returns right away
+     * with the interrupt status set and the merges going on. */
+    @Override
+    public void close() {
+        merger.shutdown();
+        try {
+            merger.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** The parts of the set at some point of time */
+    private static class State<T> {
+        final List<QueryTree2D<T>> levels; // null for empty levels
+        final List<Buffer<T>> sealed; // full buffers waiting for a merge
+        final Buffer<T> buffer; // the buffer receiving insertions
+
+        State(List<QueryTree2D<T>> levels, List<Buffer<T>> sealed,
+              Buffer<T> buffer) {
+            this.levels = levels;
+            this.sealed = sealed;
+            this.buffer = buffer;
+        }
+    }
+
+    /** Points in insertion order. Only the inserting thread writes, and
+     * points[0...size) never change once size covers them. */
+    private static class Buffer<T> {
+        final Object[] points = new Object[BUFFER_SIZE];
+        volatile int size;
+
+        @SuppressWarnings("unchecked")
+        T get(int i) {
+            return (T) points[i];
+        }
+    }
+}
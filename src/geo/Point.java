@@ -1,14 +1,13 @@
 package geo;
 
 import java.util.Comparator;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /** A planar point */
 public class Point {
 
     public final int x,y;
 
-    private static final Random random = new Random();
     public static final Comparator<Point> COMPARE_X =
             Comparator.comparingInt(one -> one.x);
     public static final Comparator<Point> COMPARE_Y =
@@ -19,7 +18,10 @@ public class Point {
         this.y = y;
     }
 
+    /** A random point. Every thread has its own random numbers, so threads
+     * calling this do not contend for a shared generator. */
     public static Point getRandom(int xMin, int xMax, int yMin, int yMax) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
         return new Point(random.nextInt(xMax - xMin) + xMin,
                 random.nextInt(yMax - yMin) + yMin);
     }
@@ -0,0 +1,303 @@
+package geo;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/** A bounded cache of query results for workloads that ask for the same
+ * rectangles again and again, such as map tiles. A query asked before is
+ * answered in O(1) time. Otherwise, if a cached rectangle contains the query
+ * rectangle, the query is answered by filtering the points of the smallest
+ * such rectangle instead of searching the tree; only if there is none the
+ * tree is searched. Looking for such a rectangle takes time linear in the
+ * number of cached results, so the cache should be kept to some thousands
+ * of them. Once the cache holds more than a given number of results or
+ * bytes, the least recently used quarter of them is evicted.
+ * Can be used by several threads at once: lookups take no lock, only
+ * storing a new result does. The cached results belong to one version of
+ * the tree; a query for a newer version, such as a
+ * VersionedQueryTree2D.Version, drops them, and so does invalidate. */
+public class QueryCache<T> {
+
+    // rough size of a cached result without its points: the key, the map
+    // entry and the array header
+    static final long ENTRY_BYTES = 96;
+    // size of a point in a cached result. Points are referenced, not copied.
+    static final long POINT_BYTES = 8;
+
+    private final Comparator<T> xComparator, yComparator;
+    private final BinaryOperator<T> corner;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final ConcurrentHashMap<Rectangle<T>, Result> results;
+    private long bytes; // estimated size of the cached results
+    // counts invalidations; results computed before one are not cached
+    private volatile long generation;
+    private volatile long version; // of the tree the results come from
+    private final LongAdder hits, containedHits, misses, evictions;
+
+    /**
+     * @param xComparator To compare by x
+     * @param yComparator To compare by y
+     * @param corner      Makes the point with the x coordinate of its first
+     *                    argument and the y coordinate of its second one
+     * @param maxEntries  Maximal number of cached results
+     * @param maxBytes    Maximal estimated size of the cached results
+     */
+    public QueryCache(Comparator<T> xComparator, Comparator<T> yComparator,
+                      BinaryOperator<T> corner, int maxEntries,
+                      long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1)
+            throw new IllegalArgumentException("The cache must be able to " +
+                    "hold something");
+        this.xComparator = xComparator;
+        this.yComparator = yComparator;
+        this.corner = corner;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.results = new ConcurrentHashMap<>();
+        this.hits = new LongAdder();
+        this.containedHits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /** A search of the tree the cached results come from */
+    public interface Search<T> {
+        void search(T min, T max, Consumer<? super T> sink);
+    }
+
+    /** The points in a query rectangle of a tree that is never updated,
+     * from the cache if possible. See search(min, max, version, search). */
+    public List<T> search(T min, T max, Search<T> search) {
+        return search(min, max, 0, search);
+    }
+
+    /** The points in a query rectangle of a version of a
+     * VersionedQueryTree2D, from the cache if possible */
+    public List<T> search(T min, T max,
+                          VersionedQueryTree2D.Version<T> version) {
+        return search(min, max, version.number, version::search);
+    }
+
+    /**
+     * The points in a query rectangle, from the cache if possible
+     * @param min     A corner of the rectangle
+     * @param max     The opposite corner of the rectangle
+     * @param version Version of the tree. If it is newer than the one of
+     *                the cached results, they are dropped; if it is older,
+     *                the tree is searched and the result is not cached.
+     * @param search  Searches the tree if the cache cannot answer the query
+     * @return The points, which must not be modified
+     */
+    public List<T> search(T min, T max, long version, Search<T> search) {
+        Rectangle<T> key = normalized(min, max);
+        if (version > this.version)
+            advance(version);
+        long generation = this.generation;
+        Result cached = null;
+        Object[] enclosing = null; // smallest cached rectangle containing it
+        if (version == this.version) {
+            cached = results.get(key);
+            if (cached == null)
+                for (Map.Entry<Rectangle<T>, Result> entry:
+                        results.entrySet())
+                    if (contains(entry.getKey(), key) &&
+                            (enclosing == null || entry.getValue().points
+                                    .length < enclosing.length))
+                        enclosing = entry.getValue().points;
+        }
+        // the cache may have moved on to a newer version while it was read,
+        // and then holds results the query must not see
+        if (version != this.version) {
+            cached = null;
+            enclosing = null;
+        }
+        if (cached != null) {
+            cached.lastUse = System.nanoTime();
+            hits.increment();
+            return view(cached.points);
+        }
+        List<Object> found = new ArrayList<>();
+        if (enclosing == null) {
+            misses.increment();
+            search.search(key.min, key.max, found::add);
+        } else {
+            containedHits.increment();
+            for (Object point: enclosing)
+                if (within(cast(point), key.min, key.max))
+                    found.add(point);
+        }
+        Object[] result = found.toArray();
+        put(key, result, version, generation);
+        return view(result);
+    }
+
+    /** The rectangle with the given opposite corners, with its lower left
+     * and upper right corner, so that equal rectangles get equal keys */
+    private Rectangle<T> normalized(T a, T b) {
+        T left = xComparator.compare(a, b) <= 0 ? a : b;
+        T right = left == a ? b : a;
+        T bottom = yComparator.compare(a, b) <= 0 ? a : b;
+        T top = bottom == a ? b : a;
+        return new Rectangle<>(left == bottom ? left :
+                corner.apply(left, bottom), right == top ? right :
+                corner.apply(right, top));
+    }
+
+    @SuppressWarnings("unchecked")
+    private T cast(Object point) {
+        return (T) point;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> view(Object[] points) {
+        return Collections.unmodifiableList((List<T>) Arrays.asList(points));
+    }
+
+    /** Cache a result of a version of the tree unless the cache has moved
+     * on to another version or was invalidated since the given generation,
+     * and evict the least recently used ones if needed */
+    private synchronized void put(Rectangle<T> key, Object[] result,
+                                  long version, long generation) {
+        long size = bytes(result);
+        if (size > maxBytes || version != this.version ||
+                generation != this.generation)
+            return;
+        Result replaced = results.put(key, new Result(result));
+        if (replaced != null)
+            bytes -= bytes(replaced.points);
+        bytes += size;
+        if (results.size() > maxEntries || bytes > maxBytes)
+            evict();
+    }
+
+    /** Evict the least recently used results until the cache is down to
+     * three quarters of its limits, so that evictions are rare */
+    private void evict() {
+        List<Map.Entry<Rectangle<T>, Result>> entries =
+                new ArrayList<>(results.entrySet());
+        entries.sort(Comparator.comparingLong(entry ->
+                entry.getValue().lastUse));
+        Iterator<Map.Entry<Rectangle<T>, Result>> eldest = entries.iterator();
+        while (eldest.hasNext() && (results.size() > maxEntries -
+                maxEntries / 4 || bytes > maxBytes - maxBytes / 4)) {
+            Map.Entry<Rectangle<T>, Result> entry = eldest.next();
+            results.remove(entry.getKey());
+            bytes -= bytes(entry.getValue().points);
+            evictions.increment();
+        }
+    }
+
+    private static long bytes(Object[] result) {
+        return ENTRY_BYTES + POINT_BYTES * result.length;
+    }
+
+    /** Drop all cached results, e.g. because the tree was rebuilt */
+    public synchronized void invalidate() {
+        results.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    /** Drop the cached results of versions before the given one */
+    private synchronized void advance(long version) {
+        if (version <= this.version)
+            return;
+        // set first, so that a search that sees the new generation also
+        // sees that its version is old and does not use the cache
+        this.version = version;
+        invalidate();
+    }
+
+    private boolean contains(Rectangle<T> outer, Rectangle<T> inner) {
+        return xComparator.compare(outer.min, inner.min) <= 0 &&
+                yComparator.compare(outer.min, inner.min) <= 0 &&
+                xComparator.compare(inner.max, outer.max) <= 0 &&
+                yComparator.compare(inner.max, outer.max) <= 0;
+    }
+
+    private boolean within(T point, T min, T max) {
+        return xComparator.compare(min, point) <= 0 &&
+                xComparator.compare(point, max) <= 0 &&
+                yComparator.compare(min, point) <= 0 &&
+                yComparator.compare(point, max) <= 0;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    /** Estimated size of the cached results in bytes */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /** Queries answered with a result cached for the same rectangle */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** Queries answered by filtering the result of a larger rectangle */
+    public long getContainedHits() {
+        return containedHits.sum();
+    }
+
+    /** Queries answered by searching the tree */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** Number of times the cached results were dropped */
+    public long getInvalidations() {
+        return generation;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d hits, %d answered from larger rectangles, " +
+                        "%d misses, %d evictions, %d results (%d bytes) " +
+                        "cached", hits.sum(), containedHits.sum(),
+                misses.sum(), evictions.sum(), results.size(), bytes);
+    }
+
+    /** A cached result */
+    private static final class Result {
+        final Object[] points;
+        volatile long lastUse; // System.nanoTime of the last lookup
+
+        Result(Object[] points) {
+            this.points = points;
+            this.lastUse = System.nanoTime();
+        }
+    }
+
+    /** A query rectangle as a key of the cache */
+    private static final class Rectangle<T> {
+        final T min, max;
+
+        Rectangle(T min, T max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Rectangle))
+                return false;
+            Rectangle<?> other = (Rectangle<?>) o;
+            return min.equals(other.min) && max.equals(other.max);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * min.hashCode() + max.hashCode();
+        }
+    }
+}
@@ -1,13 +1,19 @@
 package geo;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 import static java.lang.Integer.max;
 
 /** Represents the primary BST on which a 2D query is performed
  * While it is coded so it could be used with a generic argument type,
- * my comments refer to the planar point specifically */
-public class QueryTree2D<T> implements Tree {
+ * my comments refer to the planar point specifically.
+ * Trees are never changed after they are built, so they can be searched by
+ * any number of threads. insert and delete return updated trees instead. */
+public class QueryTree2D<T> implements Tree, RangeIndex<T> {
 
     private final T node; // the point with median x coordinate
     private final QueryTree2D<T> left, right;
@@ -16,79 +22,485 @@ public class QueryTree2D<T> implements Tree {
 
     /**
      * Constructs a new BST for a given set of points
-     * @param elements        Tree is constructed from elements[start...end)
+     * @param elements        Tree is constructed from elements[start...end),
+     *                        which are sorted by x
+     * @param byY             byY[start...end) are positions of the points
+     *                        elements[start...end) sorted by y. Overwritten
+     *                        by the subtrees.
+     * @param byYChildren     Receives the same for the subtrees
+     * @param winners         Scratch space for building treaps
      * @param mainComparator  To compare by x (used to construct the tree)
      * @param treapComparator To compare by y (passed to treap constructor)
      * @param start           Tree is constructed from elements[start...end)
      * @param end             Tree is constructed from elements[start...end)
-     * @param presorted       Whether elements are already sorted by x
      * @param isLeftSubtree   Whether the tree is a left subtree is relevant
      *                        for constructing the corresponding treap
+     * @param parallel        Whether to build large subtrees with fork-join.
+     *                        Subtrees only touch their own parts of byY,
+     *                        byYChildren and winners, so they never conflict.
      */
-    private QueryTree2D(T[] elements, Comparator<T> mainComparator,
+    private QueryTree2D(T[] elements, int[] byY, int[] byYChildren,
+                        int[] winners, Comparator<T> mainComparator,
                         Comparator<T> treapComparator, int start, int end,
-                        boolean presorted, boolean isLeftSubtree) {
+                        boolean isLeftSubtree, boolean parallel) {
         this.mainComparator = mainComparator;
         this.treapComparator = treapComparator;
-        if (isLeftSubtree)
-            this.treap = new Treap<>(Arrays.copyOfRange(elements, start, end),
-                    treapComparator, mainComparator, this);
-        else
-            this.treap = new Treap<>(Arrays.copyOfRange(elements, start, end),
-                    treapComparator, (x, y) -> -mainComparator.compare(x, y),
-                    this);
-        if (!presorted)
-            Arrays.sort(elements, mainComparator);
+        this.treap = new Treap<>(elements, byY, winners, start, end,
+                treapComparator, isLeftSubtree ? mainComparator :
+                mainComparator.reversed(), this, parallel);
         int midId = (start + end) / 2;
         this.node = elements[midId];
-        if (midId == start)
-            this.left = null;
-        else
-            this.left = new QueryTree2D<>(elements, mainComparator,
-                    treapComparator, start, midId, true, true);
-        if (midId == end - 1)
-            this.right = null;
-        else
-            this.right = new QueryTree2D<>(elements, mainComparator,
-                    treapComparator, midId+1, end, true, false);
+        // splitting the points sorted by y between the subtrees
+        int toLeft = start, toRight = midId + 1;
+        for (int i = start; i < end; i++) {
+            if (byY[i] < midId)
+                byYChildren[toLeft++] = byY[i];
+            else if (byY[i] > midId)
+                byYChildren[toRight++] = byY[i];
+        }
+        if (parallel && end - start > Tournament.PARALLEL_CUTOFF) {
+            ForkJoinTask<QueryTree2D<T>> leftTask = ForkJoinTask.adapt(() ->
+                    subtree(elements, byYChildren, byY, winners,
+                            mainComparator, treapComparator, start, midId,
+                            true, true)).fork();
+            this.right = subtree(elements, byYChildren, byY, winners,
+                    mainComparator, treapComparator, midId + 1, end, false,
+                    true);
+            this.left = leftTask.join();
+        } else {
+            this.left = subtree(elements, byYChildren, byY, winners,
+                    mainComparator, treapComparator, start, midId, true,
+                    false);
+            this.right = subtree(elements, byYChildren, byY, winners,
+                    mainComparator, treapComparator, midId + 1, end, false,
+                    false);
+        }
+    }
+
+    /** A tree holding a single point */
+    private QueryTree2D(T point, Comparator<T> mainComparator,
+                        Comparator<T> treapComparator,
+                        boolean isLeftSubtree) {
+        this.mainComparator = mainComparator;
+        this.treapComparator = treapComparator;
+        this.node = point;
+        this.left = null;
+        this.right = null;
+        this.treap = Treap.leaf(point, treapComparator, isLeftSubtree ?
+                mainComparator : mainComparator.reversed(), this);
+    }
+
+    /** A copy of a node with some of its parts replaced */
+    private QueryTree2D(QueryTree2D<T> tree, T node, QueryTree2D<T> left,
+                        QueryTree2D<T> right, Treap<T> treap) {
+        this.mainComparator = tree.mainComparator;
+        this.treapComparator = tree.treapComparator;
+        this.node = node;
+        this.left = left;
+        this.right = right;
+        this.treap = treap;
     }
 
     public QueryTree2D(T[] elements, Comparator<T> mainComparator,
                        Comparator<T> treapComparator) {
-        this(elements, mainComparator, treapComparator, 0, elements.length,
-                false, false);
+        // arguments are evaluated left to right, so positions refer to the
+        // elements already sorted by x
+        this(sortedByX(elements, mainComparator, false),
+                sortedPositions(elements, treapComparator, false),
+                new int[elements.length], new int[2 * elements.length],
+                mainComparator, treapComparator, 0, elements.length, false,
+                false);
+    }
+
+    /**
+     * Constructs the tree using several threads. Left and right subtrees and
+     * the treaps hanging from them are independent, so they are built in
+     * parallel down to subtrees of Tournament.PARALLEL_CUTOFF points.
+     * @param elements        Points to build the tree from. Sorted in place.
+     * @param mainComparator  To compare by x (used to construct the tree)
+     * @param treapComparator To compare by y (passed to treap constructor)
+     * @param parallelism     Number of threads to use
+     */
+    public static <T> QueryTree2D<T> buildParallel(
+            T[] elements, Comparator<T> mainComparator,
+            Comparator<T> treapComparator, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> new QueryTree2D<>(
+                    sortedByX(elements, mainComparator, true),
+                    sortedPositions(elements, treapComparator, true),
+                    new int[elements.length], new int[2 * elements.length],
+                    mainComparator, treapComparator, 0, elements.length,
+                    false, true)).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** The subtree over elements[start...end) or null if it is empty */
+    private static <T> QueryTree2D<T> subtree(T[] elements, int[] byY,
+                                              int[] byYChildren,
+                                              int[] winners,
+                                              Comparator<T> mainComparator,
+                                              Comparator<T> treapComparator,
+                                              int start, int end,
+                                              boolean isLeftSubtree,
+                                              boolean parallel) {
+        if (start == end)
+            return null;
+        return new QueryTree2D<>(elements, byY, byYChildren, winners,
+                mainComparator, treapComparator, start, end, isLeftSubtree,
+                parallel);
+    }
+
+    /** A tree like this one built from scratch over given points */
+    @SuppressWarnings("unchecked")
+    private QueryTree2D<T> rebuilt(List<T> points, boolean isLeftSubtree) {
+        T[] elements = (T[]) points.toArray();
+        return new QueryTree2D<>(
+                sortedByX(elements, mainComparator, false),
+                sortedPositions(elements, treapComparator, false),
+                new int[elements.length], new int[2 * elements.length],
+                mainComparator, treapComparator, 0, elements.length,
+                isLeftSubtree, false);
+    }
+
+    private static <T> T[] sortedByX(T[] elements, Comparator<T> comparator,
+                                     boolean parallel) {
+        if (parallel)
+            Arrays.parallelSort(elements, comparator);
+        else
+            Arrays.sort(elements, comparator);
+        return elements;
     }
 
+    /** Positions of elements sorted with a given comparator */
+    private static <T> int[] sortedPositions(T[] elements,
+                                             Comparator<T> comparator,
+                                             boolean parallel) {
+        int n = elements.length;
+        int[] order = new int[n], buffer = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        // bottom-up merge sort, merges within one pass are independent
+        for (int width = 1; width < n; width *= 2) {
+            int[] from = order, to = buffer;
+            int half = width;
+            IntStream merges = IntStream.range(0, (n - 1) / (2 * width) + 1);
+            (parallel ? merges.parallel() : merges).forEach(block -> {
+                int lo = 2 * half * block;
+                int mid = Math.min(lo + half, n);
+                int hi = Math.min(lo + 2 * half, n);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi)
+                    to[k++] = comparator.compare(elements[from[j]],
+                            elements[from[i]]) < 0 ? from[j++] : from[i++];
+                while (i < mid)
+                    to[k++] = from[i++];
+                while (j < hi)
+                    to[k++] = from[j++];
+            });
+            order = to;
+            buffer = from;
+        }
+        return order;
+    }
 
-    public Set<T> search(T min, T max, History history) {
-        history.updateStatus(node, History.Status.VISITED);
-        history.updateStatus(this, History.Status.VISITED, true);
+    @Override
+    public Set<T> search(T min, T max) {
+        return search(min, max, SearchListener.NONE);
+    }
+
+    public Set<T> search(T min, T max, SearchListener listener) {
         Set<T> result = new HashSet<>();
+        search(min, max, result::add, listener);
+        return result;
+    }
+
+    /** Pass every point in the query rectangle to the sink. Unlike the
+     * searches returning sets, no collections are allocated, and equal
+     * points that were added to the tree several times are passed to the
+     * sink several times. */
+    @Override
+    public void search(T min, T max, Consumer<? super T> sink) {
+        search(min, max, sink, SearchListener.NONE);
+    }
+
+    public void search(T min, T max, Consumer<? super T> sink,
+                       SearchListener listener) {
+        listener.updateStatus(node, History.Status.VISITED);
+        listener.updateStatus(this, History.Status.VISITED, true);
         if (mainComparator.compare(node, max) > 0) { // results are to the left
             if (left != null)
-                return left.search(min, max, history);
-            return result;
+                left.search(min, max, sink, listener);
+            return;
         }
         if (mainComparator.compare(min, node) > 0) { // results are to the right
             if (right != null)
-                return right.search(min, max, history);
-            return result;
+                right.search(min, max, sink, listener);
+            return;
         }
         // the node associated with the tree falls in the x-range of the query,
         // so the treaps are used to calculate the result
         if (treapComparator.compare(max, node) >= 0 &&
                 treapComparator.compare(node, min) >= 0) {
-            history.updateStatus(node, History.Status.ADDED);
-            history.updateStatus(this, History.Status.ADDED, true);
-            result.add(node);
+            listener.updateStatus(node, History.Status.ADDED);
+            listener.updateStatus(this, History.Status.ADDED, true);
+            sink.accept(node);
         }
         if (right != null)
-            result.addAll(right.treap.search(min, max, max, history));
+            right.treap.search(min, max, max, sink, listener);
         if (left != null)
-            result.addAll(left.treap.search(min, max, min, history));
+            left.treap.search(min, max, min, sink, listener);
+    }
+
+    /**
+     * Pass at most limit points of the query rectangle to the sink and
+     * return how many were passed. The search stops as soon as it has found
+     * limit points, so it takes O(log^2 n + limit) time no matter how many
+     * points fall within the rectangle. Which points are found is
+     * unspecified.
+     */
+    @Override
+    public int search(T min, T max, int limit, Consumer<? super T> sink) {
+        QueryTree2D<T> split = split(min, max);
+        if (split == null || limit <= 0)
+            return 0;
+        int found = split.countNode(min, max);
+        if (found == 1)
+            sink.accept(split.node);
+        if (split.right != null)
+            found += split.right.treap.search(min, max, max, limit - found,
+                    sink);
+        if (split.left != null)
+            found += split.left.treap.search(min, max, min, limit - found,
+                    sink);
+        return found;
+    }
+
+    /**
+     * The limit points of the query rectangle with the smallest x in
+     * ascending order, or the ones with the largest x in descending order.
+     * The treaps of right (left) subtrees are heaps with the smallest
+     * (largest) x on top, so they are searched best-first: a priority queue
+     * holds the points found, the treaps that may hold more, and the
+     * subtrees on the path towards min (max) whose treaps face the wrong
+     * way, each under a key no point it yields can precede. The search takes
+     * O((log^2 n + limit) log(log n + limit)) time.
+     */
+    public List<T> searchByX(T min, T max, int limit, boolean descending) {
+        Comparator<T> order = descending ? mainComparator.reversed() :
+                mainComparator;
+        T near = descending ? max : min, far = descending ? min : max;
+        PriorityQueue<Pending<T>> queue = new PriorityQueue<>(
+                (one, other) -> order.compare(one.key, other.key));
+        List<T> result = new ArrayList<>();
+        queue.add(new Pending<>(near, null, this, null));
+        while (result.size() < limit && !queue.isEmpty()) {
+            Pending<T> next = queue.poll();
+            if (next.point != null) {
+                result.add(next.point);
+            } else if (next.tree != null) {
+                QueryTree2D<T> tree = next.tree;
+                QueryTree2D<T> nearChild = descending ? tree.right : tree.left;
+                QueryTree2D<T> farChild = descending ? tree.left : tree.right;
+                if (order.compare(tree.node, far) > 0) {
+                    if (nearChild != null) // results are nearer
+                        queue.add(new Pending<>(near, null, nearChild, null));
+                } else if (order.compare(tree.node, near) < 0) {
+                    if (farChild != null) // results are farther
+                        queue.add(new Pending<>(near, null, farChild, null));
+                } else {
+                    if (tree.countNode(min, max) == 1)
+                        queue.add(new Pending<>(tree.node, tree.node, null,
+                                null));
+                    if (nearChild != null)
+                        queue.add(new Pending<>(near, null, nearChild, null));
+                    if (farChild != null)
+                        queue.add(new Pending<>(farChild.treap.getHeapMax(),
+                                null, null, farChild.treap));
+                }
+            } else {
+                Treap<T> treap = next.treap;
+                if (order.compare(treap.getHeapMax(), far) > 0)
+                    continue; // and so are all points below
+                if (treap.topWithin(min, max))
+                    result.add(treap.getHeapMax());
+                treap.forEachSubtreap(min, max, subtreap -> queue.add(
+                        new Pending<>(subtreap.getHeapMax(), null, null,
+                                subtreap)));
+            }
+        }
         return result;
     }
 
+    /** A part of a search by x waiting in its queue: either a point that
+     * was found, or a subtree or a treap that may hold more */
+    private static final class Pending<T> {
+        final T key; // no point of the part comes before it
+        final T point;
+        final QueryTree2D<T> tree;
+        final Treap<T> treap;
+
+        Pending(T key, T point, QueryTree2D<T> tree, Treap<T> treap) {
+            this.key = key;
+            this.point = point;
+            this.tree = tree;
+            this.treap = treap;
+        }
+    }
+
+    /** The topmost node within the x-range of the query, where the search
+     * splits, or null if there is none */
+    private QueryTree2D<T> split(T min, T max) {
+        QueryTree2D<T> split = this;
+        while (split != null) {
+            if (mainComparator.compare(split.node, max) > 0)
+                split = split.left;
+            else if (mainComparator.compare(min, split.node) > 0)
+                split = split.right;
+            else
+                break;
+        }
+        return split;
+    }
+
+    /** Count the points in the query rectangle in O(log^2 n) time without
+     * enumerating them. Below the node where the search splits, each node
+     * on the path towards min (max) whose right (left) subtree lies within
+     * the x-range of the query counts that subtree with its treap. */
+    @Override
+    public int count(T min, T max) {
+        QueryTree2D<T> split = split(min, max);
+        if (split == null)
+            return 0;
+        int result = split.countNode(min, max);
+        QueryTree2D<T> tree = split.left;
+        while (tree != null) {
+            if (mainComparator.compare(min, tree.node) > 0) {
+                tree = tree.right;
+            } else {
+                result += tree.countNode(min, max);
+                if (tree.right != null)
+                    result += tree.right.treap.count(min, max);
+                tree = tree.left;
+            }
+        }
+        tree = split.right;
+        while (tree != null) {
+            if (mainComparator.compare(tree.node, max) > 0) {
+                tree = tree.left;
+            } else {
+                result += tree.countNode(min, max);
+                if (tree.left != null)
+                    result += tree.left.treap.count(min, max);
+                tree = tree.right;
+            }
+        }
+        return result;
+    }
+
+    /** 1 if the node is within the y-range of the query, 0 otherwise */
+    private int countNode(T min, T max) {
+        return treapComparator.compare(max, node) >= 0 &&
+                treapComparator.compare(node, min) >= 0 ? 1 : 0;
+    }
+
+    /**
+     * The tree with one more point. This tree is left as it is, so searches
+     * running on it are not disturbed: the returned tree only copies the
+     * nodes on the path to the new point and, in each of their treaps, the
+     * nodes on the path to it, and shares everything else. A subtree is
+     * rebuilt once one of its children would hold more than 3/4 of its
+     * points, which keeps the tree balanced, so an update takes O(log^2 n)
+     * amortized time.
+     */
+    public QueryTree2D<T> insert(T point) {
+        return inserted(point, false);
+    }
+
+    private QueryTree2D<T> inserted(T point, boolean isLeftSubtree) {
+        Treap<T> grown = treap.inserted(point);
+        boolean toLeft = mainComparator.compare(point, node) < 0;
+        QueryTree2D<T> child = toLeft ? left : right;
+        if (Treap.isHeavy(size(child) + 1, grown.size()))
+            return rebuilt(grown.points(), isLeftSubtree);
+        if (child == null)
+            child = new QueryTree2D<>(point, mainComparator, treapComparator,
+                    toLeft);
+        else
+            child = child.inserted(point, toLeft);
+        return toLeft ? new QueryTree2D<>(this, node, child, right, grown) :
+                new QueryTree2D<>(this, node, left, child, grown);
+    }
+
+    /**
+     * The tree without one occurrence of a point, in O(log^2 n) amortized
+     * time. Like insert, this leaves the tree as it is. If the point was
+     * taken by a node, it is replaced with the closest point by x from the
+     * subtrees, which is deleted from there in turn.
+     * @return The updated tree, this tree if it does not contain the point,
+     *         or null if that was its only point
+     */
+    public QueryTree2D<T> delete(T point) {
+        return deleted(point, false);
+    }
+
+    private QueryTree2D<T> deleted(T point, boolean isLeftSubtree) {
+        Treap<T> shrunk = treap.deleted(point);
+        if (shrunk == treap)
+            return this; // the point is not in the subtree
+        if (shrunk == null)
+            return null;
+        T newNode = node;
+        QueryTree2D<T> newLeft = left, newRight = right;
+        if (point.equals(node)) {
+            if (left != null) {
+                newNode = left.last();
+                newLeft = left.deleted(newNode, true);
+            } else {
+                newNode = right.first();
+                newRight = right.deleted(newNode, false);
+            }
+        } else {
+            int compared = mainComparator.compare(point, node);
+            if (compared <= 0 && left != null)
+                newLeft = left.deleted(point, true);
+            if (compared >= 0 && right != null && newLeft == left)
+                newRight = right.deleted(point, false);
+        }
+        if (Treap.isHeavy(size(newLeft), shrunk.size()) ||
+                Treap.isHeavy(size(newRight), shrunk.size()))
+            return rebuilt(shrunk.points(), isLeftSubtree);
+        return new QueryTree2D<>(this, newNode, newLeft, newRight, shrunk);
+    }
+
+    /** The point of the leftmost node */
+    private T first() {
+        QueryTree2D<T> tree = this;
+        while (tree.left != null)
+            tree = tree.left;
+        return tree.node;
+    }
+
+    /** The point of the rightmost node */
+    private T last() {
+        QueryTree2D<T> tree = this;
+        while (tree.right != null)
+            tree = tree.right;
+        return tree.node;
+    }
+
+    /** Number of points in the tree */
+    @Override
+    public int size() {
+        return treap.size();
+    }
+
+    private static int size(QueryTree2D<?> tree) {
+        return tree == null ? 0 : tree.size();
+    }
+
     public Treap<T> getTreap() {
         return treap;
     }
@@ -0,0 +1,32 @@
+package geo;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/** A set of points answering rectangle queries. The engines behind it differ
+ * in their space, build time and query time; IndexSelector builds the one
+ * that suits a set of points best. The queries of all engines can be run by
+ * any number of threads at once. */
+public interface RangeIndex<T> {
+
+    /** The points in the query rectangle */
+    default Set<T> search(T min, T max) {
+        Set<T> result = new HashSet<>();
+        search(min, max, result::add);
+        return result;
+    }
+
+    /** Pass every point in the query rectangle to the sink, equal points as
+     * often as they were given */
+    void search(T min, T max, Consumer<? super T> sink);
+
+    /** Pass at most limit points of the query rectangle to the sink and
+     * return how many were passed. Which points are found is unspecified. */
+    int search(T min, T max, int limit, Consumer<? super T> sink);
+
+    /** Number of points in the query rectangle */
+    int count(T min, T max);
+
+    /** Number of points */
+    int size();
+}
@@ -0,0 +1,23 @@
+package geo;
+
+/** Is notified about every step of a search. History records the steps to
+ * replay them in the GUI, while NONE ignores them, so searches that nobody
+ * traces do not pay for tracing */
+public interface SearchListener {
+
+    /** Ignores all updates. The calls are inlined and eliminated by the JIT
+     * as long as no other listener is used at the same call site */
+    SearchListener NONE = (object, status, sameStep) -> { };
+
+    /**
+     * Called when the status of an object changes during the search
+     * @param object    The object, whose status is updated
+     * @param status    The new status to be assigned to the object
+     * @param sameStep  Whether the update happens simultaneously with the last
+     */
+    void updateStatus(Object object, History.Status status, boolean sameStep);
+
+    default void updateStatus(Object object, History.Status status) {
+        updateStatus(object, status, false);
+    }
+}
@@ -0,0 +1,155 @@
+package geo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/** Stores int arrays in a file and reads them back into arrays on the heap.
+ * Used to save built trees, so that they do not have to be rebuilt at every
+ * start. Reading takes one pass over the whole file, which is checked
+ * against its checksum on the way. All numbers are little-endian:
+ * <pre>
+ * int32  MAGIC ("RQIX")
+ * int32  version of the tree layout (chosen by the tree)
+ * int32  number of arrays k
+ * int32  0
+ * k times:  int64 length of the array
+ * int64  CRC32 of all the arrays
+ * the arrays, one after another, as int32
+ * </pre> */
+final class Snapshot {
+
+    static final int MAGIC = 0x58495152; // "RQIX" in little-endian
+    private static final int BUFFER_SIZE = 1 << 20; // bytes written at once
+    private static final long WINDOW_SIZE = 1L << 28; // bytes mapped at once
+
+    private Snapshot() { }
+
+    /** Write arrays to a file, replacing it if it exists */
+    static void write(Path path, int version, int[]... arrays)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(headerSize(arrays.length))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(version).putInt(arrays.length).putInt(0);
+        for (int[] array: arrays)
+            header.putLong(array.length);
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(header.capacity());
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int[] array: arrays) {
+                for (int from = 0; from < array.length; ) {
+                    int count = Math.min(array.length - from,
+                            buffer.remaining() / 4);
+                    buffer.asIntBuffer().put(array, from, count);
+                    buffer.position(buffer.position() + 4 * count);
+                    from += count;
+                    if (!buffer.hasRemaining())
+                        drain(channel, buffer, crc);
+                }
+            }
+            drain(channel, buffer, crc);
+            header.putLong(crc.getValue()).flip();
+            long position = 0;
+            while (header.hasRemaining())
+                position += channel.write(header, position);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer,
+                              CRC32 crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Read the arrays from a file written with a given layout version.
+     * The file is rejected if it has a different version, is truncated, or
+     * its checksum does not match.
+     */
+    static int[][] read(Path path, int version) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            ByteBuffer start = readFully(channel, 0, 16);
+            if (start.getInt(0) != MAGIC)
+                throw new IOException("Not a tree snapshot: " + path);
+            if (start.getInt(4) != version)
+                throw new IOException("Snapshot " + path + " has layout " +
+                        "version " + start.getInt(4) + " instead of " +
+                        version + ". Rebuild it.");
+            int count = start.getInt(8);
+            if (count < 0 || count > 1024)
+                throw corrupt(path);
+            ByteBuffer header = readFully(channel, 16, 8L * count + 8);
+            long size = headerSize(count);
+            for (int i = 0; i < count; i++) {
+                long length = header.getLong(8 * i);
+                if (length < 0 || length > Integer.MAX_VALUE)
+                    throw corrupt(path);
+                size += 4 * length;
+            }
+            // checked before allocating, so that a corrupt length is
+            // rejected instead of running out of memory
+            if (channel.size() != size)
+                throw corrupt(path);
+            int[][] arrays = new int[count][];
+            for (int i = 0; i < count; i++)
+                arrays[i] = new int[(int) header.getLong(8 * i)];
+            CRC32 crc = new CRC32();
+            long next = headerSize(count); // the first byte not mapped yet
+            IntBuffer window = IntBuffer.allocate(0);
+            for (int[] array: arrays) {
+                for (int from = 0; from < array.length; ) {
+                    if (!window.hasRemaining()) {
+                        ByteBuffer mapped = channel.map(
+                                FileChannel.MapMode.READ_ONLY, next,
+                                Math.min(WINDOW_SIZE, size - next));
+                        next += mapped.capacity();
+                        crc.update(mapped.duplicate());
+                        window = mapped.order(ByteOrder.LITTLE_ENDIAN)
+                                .asIntBuffer();
+                    }
+                    int taken = Math.min(array.length - from,
+                            window.remaining());
+                    window.get(array, from, taken);
+                    from += taken;
+                }
+            }
+            if (crc.getValue() != header.getLong(8 * count))
+                throw corrupt(path);
+            return arrays;
+        }
+    }
+
+    private static int headerSize(int arrays) {
+        return 16 + 8 * arrays + 8;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position,
+                                        long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) size)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new IOException("Snapshot is truncated");
+        }
+        return buffer;
+    }
+
+    private static IOException corrupt(Path path) {
+        return new IOException("Snapshot " + path + " is truncated or " +
+                "corrupt. Rebuild it.");
+    }
+}
@@ -0,0 +1,135 @@
+package geo;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/** Answers queries whose rectangle is open on one side, such as
+ * "y >= 10 and 0 <= x <= 5", with a single treap in O(log n + k) time.
+ * The treap for a side is a search tree by the coordinate that is bounded
+ * on both sides and a heap with the points farthest towards the open side
+ * on top, i.e. a priority search tree, and is built once per open side.
+ * Ordinary rectangles are routed automatically: a rectangle reaching as far
+ * as the points on some side is open on that side for all purposes, and
+ * rectangles bounded on all sides go to a QueryTree2D. */
+public class ThreeSidedIndex<T> {
+
+    /** The side on which a query is open */
+    public enum Side { LEFT, RIGHT, BELOW, ABOVE }
+
+    private final Comparator<T> xComparator, yComparator;
+    private final Map<Side, Treap<T>> treaps; // for the supported sides
+    private final QueryTree2D<T> tree; // for rectangles bounded everywhere
+    private final T left, right, bottom, top; // extreme points
+
+    public ThreeSidedIndex(T[] elements, Comparator<T> xComparator,
+                           Comparator<T> yComparator) {
+        this(elements, xComparator, yComparator, EnumSet.allOf(Side.class));
+    }
+
+    /**
+     * @param elements    The points, not empty
+     * @param xComparator To compare by x
+     * @param yComparator To compare by y
+     * @param sides       Sides to build treaps for. Each one takes O(n)
+     *                    space, queries open on other sides go to the tree.
+     */
+    public ThreeSidedIndex(T[] elements, Comparator<T> xComparator,
+                           Comparator<T> yComparator, Set<Side> sides) {
+        if (elements.length == 0)
+            throw new IllegalArgumentException("No points given");
+        this.xComparator = xComparator;
+        this.yComparator = yComparator;
+        this.treaps = new EnumMap<>(Side.class);
+        for (Side side: sides)
+            treaps.put(side, new Treap<>(elements, bounded(side),
+                    heap(side), null));
+        List<T> points = Arrays.asList(elements);
+        this.left = Collections.min(points, xComparator);
+        this.right = Collections.max(points, xComparator);
+        this.bottom = Collections.min(points, yComparator);
+        this.top = Collections.max(points, yComparator);
+        this.tree = new QueryTree2D<>(elements.clone(), xComparator,
+                yComparator);
+    }
+
+    /** Compares by the coordinate that queries open on a side bound */
+    private Comparator<T> bounded(Side side) {
+        return side == Side.LEFT || side == Side.RIGHT ? yComparator :
+                xComparator;
+    }
+
+    /** Puts the points farthest towards a side first */
+    private Comparator<T> heap(Side side) {
+        switch (side) {
+            case LEFT:
+                return xComparator.reversed();
+            case RIGHT:
+                return xComparator;
+            case BELOW:
+                return yComparator.reversed();
+            default:
+                return yComparator;
+        }
+    }
+
+    public Set<T> search(T min, T max) {
+        Set<T> result = new HashSet<>();
+        search(min, max, result::add);
+        return result;
+    }
+
+    /** Pass every point in the query rectangle to the sink, using a treap
+     * if the rectangle is open on one of the supported sides */
+    public void search(T min, T max, Consumer<? super T> sink) {
+        Side side = openSide(min, max);
+        if (side == null)
+            tree.search(min, max, sink);
+        else
+            search(min, max, side, sink);
+    }
+
+    /**
+     * Pass every point of a rectangle that is open on one side to the sink
+     * @param min  Lower left corner. Its coordinate on the open side is
+     *             ignored.
+     * @param max  Upper right corner. Its coordinate on the open side is
+     *             ignored.
+     * @param open The open side, which must be one of the supported ones
+     */
+    public void search(T min, T max, Side open, Consumer<? super T> sink) {
+        Treap<T> treap = treaps.get(open);
+        if (treap == null)
+            throw new IllegalArgumentException("No treap for queries open " +
+                    "on side " + open);
+        T bound = open == Side.RIGHT || open == Side.ABOVE ? min : max;
+        treap.search(min, max, bound, sink, SearchListener.NONE);
+    }
+
+    /** A supported side on which the rectangle reaches as far as the
+     * points, so that it is open on that side, or null if there is none */
+    public Side openSide(T min, T max) {
+        for (Side side: treaps.keySet()) {
+            boolean open;
+            switch (side) {
+                case LEFT:
+                    open = xComparator.compare(min, left) <= 0;
+                    break;
+                case RIGHT:
+                    open = xComparator.compare(max, right) >= 0;
+                    break;
+                case BELOW:
+                    open = yComparator.compare(min, bottom) <= 0;
+                    break;
+                default:
+                    open = yComparator.compare(max, top) >= 0;
+            }
+            if (open)
+                return side;
+        }
+        return null;
+    }
+
+    public int size() {
+        return tree.size();
+    }
+}
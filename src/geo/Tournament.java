@@ -0,0 +1,84 @@
+package geo;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntBinaryOperator;
+
+/** Assigns points to the nodes of a treap in linear time.
+ * The treap over a sequence of points sorted by y, [lo, hi), is shaped like
+ * a balanced tournament tree: a node covering [lo, hi) has children covering
+ * [lo, mid) and [mid, hi), where mid = (lo + hi) / 2, and single points sit
+ * in the leaves. Every node then takes the point with the highest priority
+ * among the points of its children, and the child that gave the point away
+ * refills itself from its own children and so on down to a leaf (just like
+ * in heapify). Points only move upwards, so each node ends up with the
+ * highest priority point of its range, and all points of the left child are
+ * still no larger than points of the right child.
+ * The tournament tree over [lo, hi) has 2 * (hi - lo) - 1 nodes stored in
+ * preorder: the children of the node at slot p are at p + 1 and
+ * p + 2 * (mid - lo). Nodes left without a point are set to -1 and so are
+ * their subtrees. Exactly hi - lo nodes end up with a point. */
+final class Tournament {
+
+    // parallel builds never split ranges smaller than this between threads
+    static final int PARALLEL_CUTOFF = 1 << 13;
+
+    private Tournament() { }
+
+    /**
+     * Play the tournament.
+     * @param winners Receives the index of the point taken by each node
+     * @param slot    Slot of the root of the tournament tree in winners
+     * @param lo      The points are [lo...hi)
+     * @param hi      The points are [lo...hi)
+     * @param better  Compares points by their indices. Positive if the first
+     *                one should be higher in the treap.
+     * @param parallel Whether to play large tournaments with fork-join
+     */
+    static void play(int[] winners, int slot, int lo, int hi,
+                     IntBinaryOperator better, boolean parallel) {
+        if (hi - lo == 1) {
+            winners[slot] = lo;
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (parallel && hi - lo > PARALLEL_CUTOFF) {
+            ForkJoinTask.invokeAll(
+                    ForkJoinTask.adapt(() -> play(winners, slot + 1, lo, mid,
+                            better, true)),
+                    ForkJoinTask.adapt(() -> play(winners,
+                            slot + 2 * (mid - lo), mid, hi, better, true)));
+        } else {
+            play(winners, slot + 1, lo, mid, better, false);
+            play(winners, slot + 2 * (mid - lo), mid, hi, better, false);
+        }
+        promote(winners, slot, lo, hi, better);
+    }
+
+    /** Fill the empty node at a given slot from its children */
+    private static void promote(int[] winners, int slot, int lo, int hi,
+                                IntBinaryOperator better) {
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            int leftSlot = slot + 1, rightSlot = slot + 2 * (mid - lo);
+            int fromLeft = winners[leftSlot], fromRight = winners[rightSlot];
+            if (fromLeft == -1 && fromRight == -1)
+                break;
+            if (fromRight == -1 || (fromLeft != -1 &&
+                    better.applyAsInt(fromLeft, fromRight) >= 0)) {
+                winners[slot] = fromLeft;
+                slot = leftSlot;
+                hi = mid;
+            } else {
+                winners[slot] = fromRight;
+                slot = rightSlot;
+                lo = mid;
+            }
+        }
+        winners[slot] = -1;
+    }
+
+    /** Slot of the right child of the node at slot covering [lo, hi) */
+    static int rightSlot(int slot, int lo, int hi) {
+        return slot + 2 * (((lo + hi) >>> 1) - lo);
+    }
+}
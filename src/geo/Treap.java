@@ -1,12 +1,16 @@
 package geo;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 import static java.lang.Integer.max;
 
 /** Represents a treap used in 2D queries.
  * While it is coded so it could be used with a generic argument type,
- * my comments refer to the planar point specifically */
+ * my comments refer to the planar point specifically.
+ * Treaps are never changed after they are built: inserting or deleting a
+ * point returns a new treap that shares everything off the updated path. */
 public class Treap<T> implements Tree {
 
     private final T heapMax; // point with largest/smallest x coord. Never null.
@@ -14,68 +18,389 @@ public class Treap<T> implements Tree {
     private final Comparator<T> maxComparator; // compares by y coord.
     private final Comparator<T> medComparator; // compares by x coord.
     private final Treap<T> left, right;
+    private final int size; // number of points in the treap
+    // the node the treap hangs from. Nodes shared by several versions of
+    // a tree refer to the version they were built for.
     public final QueryTree2D<T> parent;
 
-    /** Constructs a treap. A treap always has a non-null heapMax associated
-     * with it. heapMax is not included in any of the sub-treaps. heapMedian
-     * is passed to one of the subtrees. */
-    private Treap(List<T> elements, Comparator<T> medComparator,
+    /** Constructs a treap from the tournament played over the points
+     * elements[order[lo]] ... elements[order[hi - 1]], which are sorted with
+     * medComparator (see Tournament). A treap always has a non-null heapMax
+     * associated with it. heapMax is not included in any of the sub-treaps.
+     * heapMedian is the first point of the right half of the range, so
+     * it is never larger than the points in the right sub-treap and never
+     * smaller than the points in the left one. */
+    private Treap(T[] elements, int[] order, int[] winners, int slot,
+                  int lo, int hi, Comparator<T> medComparator,
                   Comparator<T> maxComparator, QueryTree2D<T> parent,
-                  boolean presorted) {
+                  boolean parallel) {
         this.parent = parent;
         this.medComparator = medComparator;
         this.maxComparator = maxComparator;
-        this.heapMax = Collections.max(elements, maxComparator);
-        elements.remove(heapMax);
-        if (elements.size() == 0) {
+        this.heapMax = elements[order[winners[slot]]];
+        int mid = (lo + hi) >>> 1;
+        int leftSlot = slot + 1;
+        int rightSlot = Tournament.rightSlot(slot, lo, hi);
+        if (hi - lo == 1 ||
+                (winners[leftSlot] == -1 && winners[rightSlot] == -1)) {
             this.left = null;
             this.right = null;
             this.heapMedian = null;
+            this.size = 1;
             return;
         }
-        if (!presorted)
-            elements.sort(medComparator);
-        int midId = elements.size() / 2;
-        heapMedian = elements.get(midId);
-        if (elements.size() == 1)
-            left = null;
-        else
-            left = new Treap<>(new LinkedList<>(elements.subList(0, midId)),
-                    medComparator, maxComparator, parent, true);
-        right = new Treap<>(
-                new LinkedList<>(elements.subList(midId, elements.size())),
-                medComparator, maxComparator, parent, true);
+        this.heapMedian = elements[order[mid]];
+        if (parallel && hi - lo > Tournament.PARALLEL_CUTOFF) {
+            ForkJoinTask<Treap<T>> leftTask = ForkJoinTask.adapt(() ->
+                    subtreap(elements, order, winners, leftSlot, lo, mid,
+                            medComparator, maxComparator, parent, true))
+                    .fork();
+            this.right = subtreap(elements, order, winners, rightSlot, mid,
+                    hi, medComparator, maxComparator, parent, true);
+            this.left = leftTask.join();
+        } else {
+            this.left = subtreap(elements, order, winners, leftSlot, lo, mid,
+                    medComparator, maxComparator, parent, false);
+            this.right = subtreap(elements, order, winners, rightSlot, mid,
+                    hi, medComparator, maxComparator, parent, false);
+        }
+        this.size = 1 + size(left) + size(right);
+    }
+
+    /** A treap node with given sub-treaps. heapMedian is dropped if the
+     * node has no sub-treaps. */
+    private Treap(T heapMax, T heapMedian, Treap<T> left, Treap<T> right,
+                  Comparator<T> medComparator, Comparator<T> maxComparator,
+                  QueryTree2D<T> parent) {
+        this.parent = parent;
+        this.medComparator = medComparator;
+        this.maxComparator = maxComparator;
+        this.heapMax = heapMax;
+        this.heapMedian = left == null && right == null ? null : heapMedian;
+        this.left = left;
+        this.right = right;
+        this.size = 1 + size(left) + size(right);
+    }
+
+    /** A treap holding a single point */
+    static <T> Treap<T> leaf(T point, Comparator<T> medComparator,
+                             Comparator<T> maxComparator,
+                             QueryTree2D<T> parent) {
+        return new Treap<>(point, null, null, null, medComparator,
+                maxComparator, parent);
+    }
+
+    /** The sub-treap at a given slot of the tournament or null if empty */
+    private static <T> Treap<T> subtreap(T[] elements, int[] order,
+                                         int[] winners, int slot, int lo,
+                                         int hi, Comparator<T> medComparator,
+                                         Comparator<T> maxComparator,
+                                         QueryTree2D<T> parent,
+                                         boolean parallel) {
+        if (winners[slot] == -1)
+            return null;
+        return new Treap<>(elements, order, winners, slot, lo, hi,
+                medComparator, maxComparator, parent, parallel);
+    }
+
+    /**
+     * Constructs a treap in linear time from presorted points
+     * @param elements      The points are elements[order[lo...hi)]
+     * @param order         Positions of the points sorted by medComparator
+     * @param winners       Scratch space for the tournament. Slots
+     *                      [2 * lo, 2 * hi) are used.
+     * @param lo            The points are elements[order[lo...hi)]
+     * @param hi            The points are elements[order[lo...hi)]
+     * @param medComparator To compare by y coord.
+     * @param maxComparator To compare by x coord.
+     * @param parent        The node from which the treap is hanging
+     * @param parallel      Whether to build large treaps with fork-join
+     */
+    Treap(T[] elements, int[] order, int[] winners, int lo, int hi,
+          Comparator<T> medComparator, Comparator<T> maxComparator,
+          QueryTree2D<T> parent, boolean parallel) {
+        this(elements, order, play(elements, order, winners, lo, hi,
+                maxComparator, parallel), 2 * lo, lo, hi, medComparator,
+                maxComparator, parent, parallel);
     }
 
     public Treap(T[] elements, Comparator<T> medComparator,
                  Comparator<T> maxComparator, QueryTree2D<T> parent) {
-        this(new LinkedList<T>(Arrays.asList(elements)),
+        this(sorted(elements, medComparator), identity(elements.length),
+                new int[2 * elements.length], 0, elements.length,
                 medComparator, maxComparator, parent, false);
     }
 
+    /** Play the tournament and return the array of its winners */
+    private static <T> int[] play(T[] elements, int[] order, int[] winners,
+                                  int lo, int hi, Comparator<T> comparator,
+                                  boolean parallel) {
+        Tournament.play(winners, 2 * lo, lo, hi, (i, j) -> comparator
+                .compare(elements[order[i]], elements[order[j]]), parallel);
+        return winners;
+    }
+
+    private static <T> T[] sorted(T[] elements, Comparator<T> comparator) {
+        T[] result = Arrays.copyOf(elements, elements.length);
+        Arrays.sort(result, comparator);
+        return result;
+    }
+
+    private static int[] identity(int length) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i++)
+            result[i] = i;
+        return result;
+    }
 
-    public Set<T> search(T treeMin, T treeMax, T heapMin, History history) {
-        history.updateStatus(this.heapMax, History.Status.VISITED);
-        history.updateStatus(this, History.Status.VISITED, true);
+    public Set<T> search(T treeMin, T treeMax, T heapMin,
+                         SearchListener listener) {
         Set<T> result = new HashSet<>();
+        search(treeMin, treeMax, heapMin, result::add, listener);
+        return result;
+    }
+
+    /** Pass every point of the three-sided query to the sink */
+    public void search(T treeMin, T treeMax, T heapMin,
+                       Consumer<? super T> sink, SearchListener listener) {
+        listener.updateStatus(this.heapMax, History.Status.VISITED);
+        listener.updateStatus(this, History.Status.VISITED, true);
         if (maxComparator.compare(heapMin, this.heapMax) > 0)
-            return result;
+            return;
         if ((medComparator.compare(treeMax, this.heapMax) >= 0) &&
                 (medComparator.compare(this.heapMax, treeMin) >= 0)) {
-            history.updateStatus(this, History.Status.ADDED);
-            history.updateStatus(this.heapMax, History.Status.ADDED, true);
-            result.add(this.heapMax);
+            listener.updateStatus(this, History.Status.ADDED);
+            listener.updateStatus(this.heapMax, History.Status.ADDED, true);
+            sink.accept(this.heapMax);
+        }
+        if (heapMedian == null)
+            return;
+        listener.updateStatus(heapMedian, History.Status.MEDIAN_COMPARED, true);
+        if (medComparator.compare(heapMedian, treeMin) >= 0 && left != null)
+            left.search(treeMin, treeMax, heapMin, sink, listener);
+        if (medComparator.compare(treeMax, heapMedian) >= 0 && right != null)
+            right.search(treeMin, treeMax, heapMin, sink, listener);
+    }
+
+    /** Pass at most limit points of the three-sided query to the sink and
+     * return how many were passed. Stops as soon as it has found limit
+     * points, so it takes O(log n + limit) time. */
+    public int search(T treeMin, T treeMax, T heapMin, int limit,
+                      Consumer<? super T> sink) {
+        if (limit <= 0 || maxComparator.compare(heapMin, this.heapMax) > 0)
+            return 0;
+        int found = 0;
+        if (topWithin(treeMin, treeMax)) {
+            sink.accept(this.heapMax);
+            found++;
         }
         if (heapMedian == null)
-            return result;
-        history.updateStatus(heapMedian, History.Status.MEDIAN_COMPARED, true);
+            return found;
+        if (medComparator.compare(heapMedian, treeMin) >= 0 && left != null)
+            found += left.search(treeMin, treeMax, heapMin, limit - found,
+                    sink);
+        if (medComparator.compare(treeMax, heapMedian) >= 0 && right != null)
+            found += right.search(treeMin, treeMax, heapMin, limit - found,
+                    sink);
+        return found;
+    }
+
+    /** The point on top of the heap, i.e. the first one by maxComparator */
+    T getHeapMax() {
+        return heapMax;
+    }
+
+    /** Whether heapMax is within [treeMin, treeMax] */
+    boolean topWithin(T treeMin, T treeMax) {
+        return medComparator.compare(treeMax, heapMax) >= 0 &&
+                medComparator.compare(heapMax, treeMin) >= 0;
+    }
+
+    /** Pass the sub-treaps that can hold points within [treeMin, treeMax]
+     * to the action */
+    void forEachSubtreap(T treeMin, T treeMax, Consumer<Treap<T>> action) {
+        if (heapMedian == null)
+            return;
         if (medComparator.compare(heapMedian, treeMin) >= 0 && left != null)
-            result.addAll(left.search(treeMin, treeMax, heapMin, history));
+            action.accept(left);
         if (medComparator.compare(treeMax, heapMedian) >= 0 && right != null)
-            result.addAll(right.search(treeMin, treeMax, heapMin, history));
+            action.accept(right);
+    }
+
+    /** Count the points p with treeMin <= p <= treeMax (compared with
+     * medComparator) in O(log n) time using the sizes of the sub-treaps */
+    public int count(T treeMin, T treeMax) {
+        return countBelow(treeMax, true) - countBelow(treeMin, false);
+    }
+
+    /** Count the points smaller than (or equal to if inclusive) a bound.
+     * Points of the left sub-treap are never larger than heapMedian and
+     * points of the right one are never smaller, so only one of the
+     * sub-treaps has to be explored at each step. */
+    private int countBelow(T bound, boolean inclusive) {
+        int result = 0;
+        Treap<T> treap = this;
+        while (treap != null) {
+            int compared = medComparator.compare(treap.heapMax, bound);
+            if (compared < 0 || (inclusive && compared == 0))
+                result++;
+            if (treap.heapMedian == null)
+                break;
+            compared = medComparator.compare(treap.heapMedian, bound);
+            if (compared < 0 || (inclusive && compared == 0)) {
+                result += size(treap.left);
+                treap = treap.right;
+            } else {
+                treap = treap.left;
+            }
+        }
         return result;
     }
 
+    /**
+     * The treap with one more point, in O(log n) amortized time. The point
+     * travels down towards its place by y, swapping with every heapMax it
+     * beats by x, until it reaches an empty sub-treap. If that would leave
+     * a sub-treap unbalanced, the sub-treap is rebuilt instead.
+     */
+    Treap<T> inserted(T point) {
+        T top = heapMax, carried = point;
+        if (maxComparator.compare(point, heapMax) > 0) {
+            top = point;
+            carried = heapMax;
+        }
+        if (heapMedian == null)
+            return new Treap<>(top, carried, null, leaf(carried,
+                    medComparator, maxComparator, parent), medComparator,
+                    maxComparator, parent);
+        boolean toLeft = medComparator.compare(carried, heapMedian) < 0;
+        Treap<T> child = toLeft ? left : right;
+        if (isHeavy(size(child) + 1, size + 1)) {
+            List<T> points = points();
+            int at = Collections.binarySearch(points, point, medComparator);
+            points.add(at < 0 ? -at - 1 : at, point);
+            return rebuilt(points);
+        }
+        Treap<T> grown = child == null ? leaf(carried, medComparator,
+                maxComparator, parent) : child.inserted(carried);
+        return toLeft ?
+                new Treap<>(top, heapMedian, grown, right, medComparator,
+                        maxComparator, parent) :
+                new Treap<>(top, heapMedian, left, grown, medComparator,
+                        maxComparator, parent);
+    }
+
+    /**
+     * The treap without one occurrence of a point, in O(log n) amortized
+     * time as long as few points share the y coordinate of the deleted one.
+     * Returns this treap if it does not hold the point and null if it held
+     * nothing else. The freed heapMax is refilled from below.
+     */
+    Treap<T> deleted(T point) {
+        if (maxComparator.compare(point, heapMax) > 0)
+            return this; // every point here beats it
+        if (point.equals(heapMax))
+            return withoutHeapMax();
+        if (heapMedian == null)
+            return this;
+        int compared = medComparator.compare(point, heapMedian);
+        if (compared <= 0 && left != null) {
+            Treap<T> shrunk = left.deleted(point);
+            if (shrunk != left)
+                return balanced(heapMax, shrunk, right);
+        }
+        if (compared >= 0 && right != null) {
+            Treap<T> shrunk = right.deleted(point);
+            if (shrunk != right)
+                return balanced(heapMax, left, shrunk);
+        }
+        return this;
+    }
+
+    /** The treap without its heapMax: the best of the heapMaxes of the
+     * sub-treaps takes its place, and so on down to a leaf */
+    private Treap<T> withoutHeapMax() {
+        if (left == null && right == null)
+            return null;
+        if (right == null || (left != null && maxComparator.compare(
+                left.heapMax, right.heapMax) >= 0))
+            return balanced(left.heapMax, left.withoutHeapMax(), right);
+        return balanced(right.heapMax, left, right.withoutHeapMax());
+    }
+
+    /** A node that keeps the median of this one, rebuilt if unbalanced */
+    private Treap<T> balanced(T heapMax, Treap<T> left, Treap<T> right) {
+        Treap<T> result = new Treap<>(heapMax, heapMedian, left, right,
+                medComparator, maxComparator, parent);
+        if (isHeavy(size(left), result.size) ||
+                isHeavy(size(right), result.size))
+            return rebuilt(result.points());
+        return result;
+    }
+
+    /** Build a treap like this one from points sorted by medComparator */
+    @SuppressWarnings("unchecked")
+    private Treap<T> rebuilt(List<T> points) {
+        T[] elements = (T[]) points.toArray();
+        return new Treap<>(elements, identity(elements.length),
+                new int[2 * elements.length], 0, elements.length,
+                medComparator, maxComparator, parent, false);
+    }
+
+    /** Whether a subtree holding part out of the whole points of its tree
+     * is too large, so that the tree has to be rebuilt. Trees that are
+     * built from scratch never have subtrees this large. */
+    static boolean isHeavy(int part, int whole) {
+        return 4L * part > 3L * whole;
+    }
+
+    /** Points of the treap sorted with medComparator, in linear time */
+    List<T> points() {
+        List<T> result = new ArrayList<>(size);
+        collect(this, new ArrayList<>(), result);
+        return result;
+    }
+
+    /**
+     * Append the points of a treap to result in sorted order.
+     * @param treap   The treap, can be null
+     * @param pending Sorted heapMaxes of the nodes above, which fall in
+     *                the range of the treap. They are pushed down until
+     *                their place is known, which takes linear time overall
+     *                in a balanced treap.
+     * @param result  Receives the points
+     */
+    private static <T> void collect(Treap<T> treap, List<T> pending,
+                                    List<T> result) {
+        if (treap == null) {
+            result.addAll(pending);
+            return;
+        }
+        int at = Collections.binarySearch(pending, treap.heapMax,
+                treap.medComparator);
+        pending.add(at < 0 ? -at - 1 : at, treap.heapMax);
+        if (treap.heapMedian == null) {
+            result.addAll(pending);
+            return;
+        }
+        int split = 0;
+        while (split < pending.size() && treap.medComparator.compare(
+                pending.get(split), treap.heapMedian) < 0)
+            split++;
+        collect(treap.left, new ArrayList<>(pending.subList(0, split)),
+                result);
+        collect(treap.right, new ArrayList<>(pending.subList(split,
+                pending.size())), result);
+    }
+
+    private static int size(Treap<?> treap) {
+        return treap == null ? 0 : treap.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
     @Override
     public String getName() {
         return heapMax.toString() + " | " +
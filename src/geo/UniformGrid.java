@@ -0,0 +1,165 @@
+package geo;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/** Points bucketed into a uniform grid of cells over their bounding box,
+ * with about CELL_POINTS points per cell. The points are stored cell by
+ * cell, row by row, in flat arrays, so a query scans the cells of each row
+ * it covers as one contiguous range and only checks the coordinates of the
+ * points in cells on the border of the query rectangle. It takes O(n)
+ * space and is built in O(n) time; a query takes O(k) time on evenly spread
+ * points, but degrades to a scan of whole clusters on skewed ones. */
+public class UniformGrid implements RangeIndex<Point> {
+
+    static final int CELL_POINTS = 16; // points per cell on average
+
+    private final int cells; // cells per row and per column
+    private final int xMin, yMin; // lower left corner of the grid
+    private final long width, height; // of a cell
+    private final int[] start; // position of the first point of every cell
+    private final int[] xs, ys; // points ordered by their cells
+    private final Point[] points; // the same, to be passed to sinks
+
+    public UniformGrid(Point[] points) {
+        this(Arrays.stream(points).mapToInt(p -> p.x).toArray(),
+                Arrays.stream(points).mapToInt(p -> p.y).toArray());
+    }
+
+    /**
+     * @param x x coordinates of the points
+     * @param y y coordinates of the points, y[i] corresponds to x[i]
+     */
+    public UniformGrid(int[] x, int[] y) {
+        if (x.length != y.length)
+            throw new IllegalArgumentException("Got " + x.length +
+                    " x coordinates and " + y.length + " y coordinates");
+        int n = x.length;
+        this.cells = cellsPerSide(n);
+        int xMax = Integer.MIN_VALUE, yMax = Integer.MIN_VALUE;
+        int left = Integer.MAX_VALUE, bottom = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            left = Math.min(left, x[i]);
+            xMax = Math.max(xMax, x[i]);
+            bottom = Math.min(bottom, y[i]);
+            yMax = Math.max(yMax, y[i]);
+        }
+        this.xMin = left;
+        this.yMin = bottom;
+        this.width = ((long) xMax - left) / cells + 1;
+        this.height = ((long) yMax - bottom) / cells + 1;
+
+        // counting sort by cell
+        int[] cell = new int[n];
+        this.start = new int[cells * cells + 1];
+        for (int i = 0; i < n; i++) {
+            cell[i] = row(y[i]) * cells + column(x[i]);
+            start[cell[i] + 1]++;
+        }
+        for (int i = 0; i < cells * cells; i++)
+            start[i + 1] += start[i];
+        int[] next = Arrays.copyOf(start, cells * cells);
+        this.xs = new int[n];
+        this.ys = new int[n];
+        this.points = new Point[n];
+        for (int i = 0; i < n; i++) {
+            int at = next[cell[i]]++;
+            xs[at] = x[i];
+            ys[at] = y[i];
+            points[at] = new Point(x[i], y[i]);
+        }
+    }
+
+    /** Number of cells per side of a grid over n points */
+    static int cellsPerSide(int n) {
+        return Math.max(1, (int) Math.sqrt((double) n / CELL_POINTS));
+    }
+
+    /** The column of the cells holding an x coordinate. Coordinates outside
+     * the grid get the first or the last column. */
+    private int column(int x) {
+        long column = ((long) x - xMin) / width;
+        return (int) Math.max(0, Math.min(cells - 1, column));
+    }
+
+    /** The row of the cells holding a y coordinate */
+    private int row(int y) {
+        long row = ((long) y - yMin) / height;
+        return (int) Math.max(0, Math.min(cells - 1, row));
+    }
+
+    @Override
+    public void search(Point min, Point max, Consumer<? super Point> sink) {
+        search(min, max, Integer.MAX_VALUE, sink);
+    }
+
+    @Override
+    public int search(Point min, Point max, int limit,
+                      Consumer<? super Point> sink) {
+        return search(min.x, min.y, max.x, max.y, limit, sink);
+    }
+
+    @Override
+    public int count(Point min, Point max) {
+        return search(min.x, min.y, max.x, max.y, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Find at most limit points of the query rectangle
+     * @param sink Receives the points, or null to only count them
+     * @return The number of points found
+     */
+    private int search(int xMin, int yMin, int xMax, int yMax, int limit,
+                       Consumer<? super Point> sink) {
+        if (xMin > xMax || yMin > yMax || xs.length == 0)
+            return 0;
+        int left = column(xMin), right = column(xMax);
+        int bottom = row(yMin), top = row(yMax);
+        int found = 0;
+        for (int row = bottom; row <= top && found < limit; row++) {
+            // only the first and the last row and column may hold points
+            // outside the query rectangle
+            boolean checkY = row == bottom || row == top;
+            int first = row * cells + left, last = row * cells + right;
+            found += scan(start[first], start[first + 1], true, checkY, xMin,
+                    yMin, xMax, yMax, limit - found, sink);
+            if (last == first)
+                continue;
+            found += scan(start[first + 1], start[last], false, checkY, xMin,
+                    yMin, xMax, yMax, limit - found, sink);
+            found += scan(start[last], start[last + 1], true, checkY, xMin,
+                    yMin, xMax, yMax, limit - found, sink);
+        }
+        return found;
+    }
+
+    /** Find at most limit points of the query rectangle at positions
+     * [from, to), checking only the coordinates that need it */
+    private int scan(int from, int to, boolean checkX, boolean checkY,
+                     int xMin, int yMin, int xMax, int yMax, int limit,
+                     Consumer<? super Point> sink) {
+        if (!checkX && !checkY) {
+            int end = (int) Math.min(to, (long) from + limit);
+            if (sink != null)
+                for (int i = from; i < end; i++)
+                    sink.accept(points[i]);
+            return Math.max(0, end - from);
+        }
+        int found = 0;
+        for (int i = from; i < to && found < limit; i++) {
+            if (checkX && (xs[i] < xMin || xs[i] > xMax))
+                continue;
+            if (checkY && (ys[i] < yMin || ys[i] > yMax))
+                continue;
+            if (sink != null)
+                sink.accept(points[i]);
+            found++;
+        }
+        return found;
+    }
+
+    @Override
+    public int size() {
+        return xs.length;
+    }
+}
@@ -0,0 +1,122 @@
+package geo;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/** A mutable set of points that can be searched while it is being updated.
+ * Every update builds a new version of the tree with QueryTree2D.insert and
+ * QueryTree2D.delete, which copy the O(log^2 n) nodes they change and share
+ * the rest, and publishes it with an atomic reference. A search pins the
+ * version that is current when it starts and sees neither later updates nor
+ * half-done ones; neither readers nor writers ever take a lock. */
+public class VersionedQueryTree2D<T> {
+
+    private final Comparator<T> mainComparator, treapComparator;
+    private final AtomicReference<Version<T>> current;
+
+    /**
+     * @param elements        The initial points, can be empty. Sorted in
+     *                        place.
+     * @param mainComparator  To compare by x (used to construct the tree)
+     * @param treapComparator To compare by y (passed to treap constructor)
+     */
+    public VersionedQueryTree2D(T[] elements, Comparator<T> mainComparator,
+                                Comparator<T> treapComparator) {
+        this.mainComparator = mainComparator;
+        this.treapComparator = treapComparator;
+        this.current = new AtomicReference<>(new Version<>(0,
+                elements.length == 0 ? null : new QueryTree2D<>(elements,
+                        mainComparator, treapComparator)));
+    }
+
+    /** The current version. It never changes, so a reader can run any
+     * number of queries on it and get consistent answers. */
+    public Version<T> snapshot() {
+        return current.get();
+    }
+
+    /** Add a point and return the version that has it */
+    public Version<T> insert(T point) {
+        return apply(tree -> inserted(tree, point));
+    }
+
+    /** Remove one occurrence of a point and return the version without it.
+     * If there is no such point, the current version is returned. */
+    public Version<T> delete(T point) {
+        return apply(tree -> tree == null ? null : tree.delete(point));
+    }
+
+    /** Apply several insertions and then several deletions as a single
+     * update, so that no reader sees only some of them */
+    public Version<T> update(Collection<? extends T> insertions,
+                             Collection<? extends T> deletions) {
+        return apply(tree -> {
+            for (T point: insertions)
+                tree = inserted(tree, point);
+            for (T point: deletions)
+                if (tree != null)
+                    tree = tree.delete(point);
+            return tree;
+        });
+    }
+
+    /** Publish the result of an update of the current tree. If another
+     * writer gets in first, the update is applied again to its version. */
+    private Version<T> apply(UnaryOperator<QueryTree2D<T>> update) {
+        while (true) {
+            Version<T> old = current.get();
+            QueryTree2D<T> tree = update.apply(old.tree);
+            if (tree == old.tree)
+                return old;
+            Version<T> updated = new Version<>(old.number + 1, tree);
+            if (current.compareAndSet(old, updated))
+                return updated;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private QueryTree2D<T> inserted(QueryTree2D<T> tree, T point) {
+        if (tree != null)
+            return tree.insert(point);
+        return new QueryTree2D<>((T[]) new Object[] {point}, mainComparator,
+                treapComparator);
+    }
+
+    /** An immutable version of the set */
+    public static final class Version<T> {
+        public final long number; // counts the updates before this version
+        private final QueryTree2D<T> tree; // null if the set is empty
+
+        private Version(long number, QueryTree2D<T> tree) {
+            this.number = number;
+            this.tree = tree;
+        }
+
+        public Set<T> search(T min, T max) {
+            Set<T> result = new HashSet<>();
+            search(min, max, result::add);
+            return result;
+        }
+
+        /** Pass every point in the query rectangle to the sink */
+        public void search(T min, T max, Consumer<? super T> sink) {
+            if (tree != null)
+                tree.search(min, max, sink);
+        }
+
+        public int count(T min, T max) {
+            return tree == null ? 0 : tree.count(min, max);
+        }
+
+        public int size() {
+            return tree == null ? 0 : tree.size();
+        }
+
+        /** The tree of this version or null if the set is empty */
+        public QueryTree2D<T> getTree() {
+            return tree;
+        }
+    }
+}
@@ -13,6 +13,7 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 
 import static java.lang.Integer.max;
 import static java.lang.Integer.min;
@@ -32,6 +33,10 @@ public class PointDisplayer extends JPanel implements MouseListener {
     private final TreeDisplayer treapDisplayer; // associated treap displayer
     private QueryTree2D<Point> tree; // the tree built from points
     private HashMap<String, Treap<geo.Point>> allTreaps; // all treaps in tree
+    // the name under which each treap is in allTreaps. Treap.parent is not
+    // used for it, since treaps copied by tree.insert or tree.delete keep
+    // the node of the version they were first built for.
+    private IdentityHashMap<Treap<geo.Point>, String> treapNames;
     // stores list of treaps available for display
     private final JComboBox treapSelector;
 
@@ -77,7 +82,8 @@ public class PointDisplayer extends JPanel implements MouseListener {
             heapToDisplay = tree.getTreap();
         }
         treapDisplayer.setTree(heapToDisplay);
-        treapSelector.setSelectedItem(heapToDisplay.parent.getName());
+        if (treapNames != null && treapNames.containsKey(heapToDisplay))
+            treapSelector.setSelectedItem(treapNames.get(heapToDisplay));
         treapDisplayer.setHistory(history);
     }
 
@@ -120,6 +126,8 @@ public class PointDisplayer extends JPanel implements MouseListener {
         query = new geo.Point[2];
         setHistory(null);
         tree = null;
+        allTreaps = null;
+        treapNames = null;
     }
 
     public void computeTree() {
@@ -129,12 +137,35 @@ public class PointDisplayer extends JPanel implements MouseListener {
         setHistory(null);
         tree = new QueryTree2D<>(points.toArray(new geo.Point[0]),
                 Point.COMPARE_X, Point.COMPARE_Y);
+        showTree();
+    }
+
+    /** Apply the addition or removal of a point to the tree */
+    private void updateTree(geo.Point pos) {
+        if (points.isEmpty()) {
+            clear();
+            return;
+        }
+        if (tree == null) {
+            computeTree();
+            return;
+        }
+        treeDisplayer.setHistory(null);
+        treapDisplayer.setHistory(null);
+        setHistory(null);
+        tree = mode == Mode.ADD ? tree.insert(pos) : tree.delete(pos);
+        showTree();
+    }
+
+    private void showTree() {
         treeDisplayer.setTree(tree);
         treapDisplayer.setTree(tree.getTreap());
         allTreaps = new HashMap<>();
         tree.buildAllTreaps(allTreaps);
+        treapNames = new IdentityHashMap<>();
         treapSelector.removeAllItems();
         for (String key: allTreaps.keySet()) {
+            treapNames.put(allTreaps.get(key), key);
             treapSelector.addItem(key);
         }
         treapSelector.setSelectedItem(tree.getName());
@@ -230,7 +261,7 @@ public class PointDisplayer extends JPanel implements MouseListener {
                 break;
         }
         if (updateTrees) {
-            computeTree();
+            updateTree(pos);
         }
         if (updateHistory || updateTrees) {
             treeDisplayer.setHistory(null);